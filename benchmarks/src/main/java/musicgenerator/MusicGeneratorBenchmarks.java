@@ -0,0 +1,354 @@
+package musicgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import musicgenerator.MusicGenerator.Bar;
+import musicgenerator.MusicGenerator.Chord;
+import musicgenerator.MusicGenerator.Note;
+import musicgenerator.MusicGenerator.RenderCache;
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.Track;
+import musicgenerator.MusicGenerator.WaveformGenerator;
+import musicgenerator.MusicGenerator.Waveforms;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// run with java -jar benchmarks/target/benchmarks.jar [jmh options] [regex]; the shared
+// RenderCache is disabled in every setup so these measure synthesis rather than cache hits
+public class MusicGeneratorBenchmarks {
+
+    private static WaveformGenerator oscillator(String name) {
+        switch (name) {
+            case "sine":
+                return Waveforms::generateSineWave;
+            case "square":
+                return Waveforms::generateSquareWave;
+            case "sawtooth":
+                return Waveforms::generateSawtoothWave;
+            case "triangle":
+                return Waveforms::generateTriangleWave;
+            case "wavetable_sine":
+                return WavetableOscillator.SINE;
+            case "wavetable_square":
+                return WavetableOscillator.SQUARE;
+            case "wavetable_sawtooth":
+                return WavetableOscillator.SAWTOOTH;
+            case "wavetable_triangle":
+                return WavetableOscillator.TRIANGLE;
+            default:
+                throw new IllegalArgumentException("unknown oscillator: " + name);
+        }
+    }
+
+    private static void disableCache() {
+        RenderCache.shared().setMaxBytes(0);
+    }
+
+    // one second of each oscillator at A4, envelope and normalize included
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Oscillators {
+        @Param({ "sine", "square", "sawtooth", "triangle",
+                "wavetable_sine", "wavetable_square", "wavetable_sawtooth", "wavetable_triangle" })
+        public String waveform;
+
+        private WaveformGenerator generator;
+
+        @Setup
+        public void setup() {
+            generator = oscillator(waveform);
+        }
+
+        @Benchmark
+        public double[] generate() {
+            return generator.generate(440.0, 1.0);
+        }
+    }
+
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Envelope {
+        @Param({ "4410", "44100" })
+        public int samples;
+
+        private double[] waveform;
+
+        @Setup
+        public void setup() {
+            waveform = new double[samples];
+            for (int i = 0; i < samples; i++) {
+                waveform[i] = 0.5 * Math.sin(2 * Math.PI * 440.0 * i / 44100);
+            }
+        }
+
+        // applyEnvelope ends with normalize, as in every generator
+        @Benchmark
+        public double[] applyEnvelope() {
+            return Waveforms.applyEnvelope(waveform);
+        }
+
+        @Benchmark
+        public double[] normalize() {
+            return Waveforms.normalize(waveform);
+        }
+    }
+
+    // chord sizes from CHORD_INTERVALS: power chord through 7-voice extensions
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Chords {
+        @Param({ "5", "Major", "7", "9", "11", "13", "maj13" })
+        public String chordName;
+
+        @Param({ "sine", "wavetable_sine" })
+        public String waveform;
+
+        private Chord chord;
+        private WaveformGenerator generator;
+
+        @Setup
+        public void setup() {
+            disableCache();
+            chord = new Chord("C", chordName, "w", 3);
+            generator = oscillator(waveform);
+        }
+
+        @Benchmark
+        public double[] generateWaveform() {
+            return chord.generateWaveform(generator);
+        }
+    }
+
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Concatenate {
+        @Param({ "4", "64", "1024" })
+        public int parts;
+
+        private List<double[]> waveforms;
+
+        @Setup
+        public void setup() {
+            waveforms = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                waveforms.add(new double[11025]); // a quarter note
+            }
+        }
+
+        @Benchmark
+        public double[] concatenateWaveforms() {
+            return MusicGenerator.concatenateWaveforms(waveforms);
+        }
+    }
+
+    // full render and mix, scaled by song size
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public static class SongMix {
+        @Param({ "1", "4", "16" })
+        public int tracks;
+
+        @Param({ "4", "32" })
+        public int bars;
+
+        @Param({ "sine" })
+        public String waveform;
+
+        private Song song;
+        private WaveformGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            disableCache();
+            song = buildSong(tracks, bars);
+            generator = oscillator(waveform);
+        }
+
+        @Benchmark
+        public double[] generateWaveform() {
+            return song.generateWaveform(generator);
+        }
+    }
+
+    // one long track (1024 bars of quarter notes, ~17 min) rendered sequentially and in time
+    // segments; compare segmented at each thread count against sequential for the speedup per core
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(value = 1, jvmArgs = { "-Xmx4g" })
+    public static class SegmentedRender {
+        @Param({ "1", "2", "4", "8" })
+        public int threads;
+
+        private Song song;
+        private ForkJoinPool pool;
+        private SegmentedRenderer renderer;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            disableCache();
+            song = buildSong(1, 1024);
+            pool = new ForkJoinPool(threads);
+            renderer = new SegmentedRenderer(pool);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+
+        @Benchmark
+        public double[] sequential() {
+            return song.generateWaveform(WavetableOscillator.SINE);
+        }
+
+        @Benchmark
+        public double[] segmented() {
+            return renderer.render(song, WavetableOscillator.SINE);
+        }
+    }
+
+    // smf import throughput in events/sec on a generated 4-track type 1 file with 2M note events
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public static class MidiImport {
+        private static final int TRACKS = 4;
+        private static final int NOTES_PER_TRACK = 250_000;
+
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            file = Files.createTempFile("bench", ".mid");
+            writeMidiFile(file, TRACKS, NOTES_PER_TRACK);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+
+        @Benchmark
+        @OperationsPerInvocation(TRACKS * NOTES_PER_TRACK * 2)
+        public long parse() throws IOException {
+            try (MidiReader reader = new MidiReader(file)) {
+                while (reader.nextNote() != null) {
+                    // drain
+                }
+                return reader.eventsRead();
+            }
+        }
+    }
+
+    // type 1 file: a tempo track plus `tracks` tracks of back-to-back eighth notes at 480 ppq,
+    // every note-on/off pair as two events
+    static void writeMidiFile(Path path, int tracks, int notesPerTrack) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            out.write(new byte[] { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1 });
+            writeShort(out, tracks + 1);
+            writeShort(out, 480);
+
+            ByteArrayOutputStream tempo = new ByteArrayOutputStream();
+            tempo.write(new byte[] { 0, (byte) 0xFF, 0x51, 3, 0x07, (byte) 0xA1, 0x20 }); // 120 bpm
+            tempo.write(new byte[] { 0, (byte) 0xFF, 0x2F, 0 });
+            writeTrack(out, tempo.toByteArray());
+
+            for (int t = 0; t < tracks; t++) {
+                ByteArrayOutputStream track = new ByteArrayOutputStream();
+                for (int n = 0; n < notesPerTrack; n++) {
+                    int key = 36 + (n * 7 + t * 5) % 48;
+                    track.write(new byte[] { 0, (byte) (0x90 | t), (byte) key, 100 });
+                    track.write(new byte[] { (byte) 0x81, 0x70, (byte) (0x80 | t), (byte) key, 0 }); // 240 ticks
+                }
+                track.write(new byte[] { 0, (byte) 0xFF, 0x2F, 0 });
+                writeTrack(out, track.toByteArray());
+            }
+        }
+    }
+
+    private static void writeTrack(OutputStream out, byte[] data) throws IOException {
+        out.write(new byte[] { 'M', 'T', 'r', 'k' });
+        writeShort(out, data.length >>> 16);
+        writeShort(out, data.length);
+        out.write(data);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static final String[] MELODY = { "C", "D", "E", "F", "G", "A", "B" };
+    private static final String[] PROGRESSION = { "C", "F", "G", "A" };
+
+    // alternates melody tracks of quarter notes and accompaniment tracks of half-note chords
+    static Song buildSong(int tracks, int bars) {
+        Song song = new Song("C", new int[] { 4, 4 });
+        for (int t = 0; t < tracks; t++) {
+            Track track = new Track("C", bars);
+            for (int b = 0; b < bars; b++) {
+                Bar bar = new Bar("C", new int[] { 4, 4 });
+                if (t % 2 == 0) {
+                    for (int n = 0; n < 4; n++) {
+                        bar.addNoteOrChord(new Note(MELODY[(b * 4 + n + t) % MELODY.length], 4, "qtr"));
+                    }
+                } else {
+                    bar.addNoteOrChord(new Chord(PROGRESSION[b % PROGRESSION.length], "Major", "h", 3));
+                    bar.addNoteOrChord(new Chord(PROGRESSION[(b + 1) % PROGRESSION.length], "7", "h", 3));
+                }
+                track.addBar(bar);
+            }
+            song.addTrack(track);
+        }
+        return song;
+    }
+}
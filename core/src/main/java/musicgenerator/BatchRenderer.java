@@ -0,0 +1,301 @@
+package musicgenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// renders many songs in-process, each to <outputDir>/<name>.wav. submit() blocks while
+// queueCapacity jobs are waiting; a fixed set of virtual-thread workers caps concurrent renders.
+// a failed job leaves no file behind and is listed in failures()
+public final class BatchRenderer implements AutoCloseable {
+    private static final Job SHUTDOWN = new Job(null, null, null, true);
+    private static final int BLOCK_FRAMES = 4096;
+    private static final int LATENCY_SAMPLES = 10_000; // most recent jobs kept for percentiles
+    private static final int FAILURES_KEPT = 1000; // most recent failures kept for failures()
+
+    private final Path outputDir;
+    private final MusicGenerator.WavWriter.Encoding encoding;
+    private final BlockingQueue<Job> queue;
+    private final Thread[] workers;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+    private final ArrayDeque<Failure> failures = new ArrayDeque<>();
+    private final long startNanos = System.nanoTime();
+    // submit() enqueues under the read lock and close() takes the write lock to stop
+    // submissions, so no job can land behind the shutdown tokens
+    private final ReentrantReadWriteLock submitLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    public BatchRenderer(Path outputDir, MusicGenerator.WavWriter.Encoding encoding, int workers, int queueCapacity) {
+        if (workers <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("workers and queueCapacity must be positive");
+        }
+        this.outputDir = outputDir.normalize();
+        this.encoding = encoding;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = new Thread[workers];
+        Thread.Builder builder = Thread.ofVirtual().name("batch-render-", 0);
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = builder.start(this::work);
+        }
+    }
+
+    // blocks while the queue is full. name becomes <outputDir>/<name>.wav, so it can't hold a path
+    public void submit(String name, MusicGenerator.Song song, MusicGenerator.WaveformGenerator generator)
+            throws InterruptedException {
+        outputPath(name);
+        submitLock.readLock().lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("batch renderer is closed");
+            }
+            queue.put(new Job(name, song, generator, MusicGenerator.Waveforms.normalizesNotes()));
+        } finally {
+            submitLock.readLock().unlock();
+        }
+    }
+
+    private Path outputPath(String name) {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException("job name must be a plain file name: " + name);
+        }
+        Path path = outputDir.resolve(name + ".wav").normalize();
+        if (!outputDir.equals(path.getParent())) {
+            throw new IllegalArgumentException("job name must be a plain file name: " + name);
+        }
+        return path;
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == SHUTDOWN) {
+                return;
+            }
+            Path path = outputPath(job.name);
+            boolean writing = false;
+            try {
+                // one synthesis pass into the compact float mix, then encoded a block at a time
+                FloatSource source = new FloatSource(MusicGenerator.Waveforms.withNormalizeNotes(job.normalize,
+                        () -> job.song.generateWaveformFloat(job.generator)));
+                writing = true;
+                MusicGenerator.WavWriter.write(source, path, encoding);
+                completed.increment();
+            } catch (IOException | RuntimeException | Error e) {
+                // a partly written file would pass for finished output
+                if (writing) {
+                    try {
+                        if (Files.isRegularFile(path)) {
+                            Files.delete(path);
+                        }
+                    } catch (IOException deleteFailure) {
+                        e.addSuppressed(deleteFailure);
+                    }
+                }
+                failed.increment();
+                recordFailure(new Failure(job.name, e));
+            }
+            recordLatency(System.nanoTime() - job.submitNanos);
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = nanos;
+    }
+
+    private synchronized void recordFailure(Failure failure) {
+        if (failures.size() == FAILURES_KEPT) {
+            failures.removeFirst();
+        }
+        failures.addLast(failure);
+    }
+
+    // the most recent failed jobs, oldest first; failed() in metrics() counts all of them
+    public synchronized List<Failure> failures() {
+        return new ArrayList<>(failures);
+    }
+
+    public Metrics metrics() {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(sorted);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return new Metrics(completed.sum(), failed.sum(), queue.size(), completed.sum() / seconds,
+                percentileMillis(sorted, 0.50), percentileMillis(sorted, 0.95), percentileMillis(sorted, 0.99));
+    }
+
+    private static double percentileMillis(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    // finishes every job already submitted, then stops the workers. if the calling thread
+    // is interrupted while waiting, the workers are interrupted too (they stop after their
+    // current job) and close() returns with the interrupt flag set
+    @Override
+    public void close() {
+        submitLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            submitLock.writeLock().unlock();
+        }
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                queue.put(SHUTDOWN);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Job {
+        private final String name;
+        private final MusicGenerator.Song song;
+        private final MusicGenerator.WaveformGenerator generator;
+        private final boolean normalize; // of the submitting thread
+        private final long submitNanos = System.nanoTime();
+
+        Job(String name, MusicGenerator.Song song, MusicGenerator.WaveformGenerator generator, boolean normalize) {
+            this.name = name;
+            this.song = song;
+            this.generator = generator;
+            this.normalize = normalize;
+        }
+    }
+
+    // a rendered mix handed to WavWriter BLOCK_FRAMES at a time
+    private static final class FloatSource implements MusicGenerator.BlockSource {
+        private final float[] samples;
+        private final double[] block = new double[BLOCK_FRAMES];
+        private int position;
+
+        FloatSource(float[] samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public double[] buffer() {
+            return block;
+        }
+
+        @Override
+        public int read() {
+            int frames = Math.min(block.length, samples.length - position);
+            for (int i = 0; i < frames; i++) {
+                block[i] = samples[position + i];
+            }
+            position += frames;
+            return frames;
+        }
+    }
+
+    // a job that threw instead of writing its file
+    public static final class Failure {
+        private final String name;
+        private final Throwable cause;
+
+        Failure(String name, Throwable cause) {
+            this.name = name;
+            this.cause = cause;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Throwable cause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + cause;
+        }
+    }
+
+    // latencies run from submit() to the file being closed, over the last 10k jobs
+    public static final class Metrics {
+        private final long completed;
+        private final long failed;
+        private final int queueDepth;
+        private final double jobsPerSecond;
+        private final double p50Millis;
+        private final double p95Millis;
+        private final double p99Millis;
+
+        Metrics(long completed, long failed, int queueDepth, double jobsPerSecond,
+                double p50Millis, double p95Millis, double p99Millis) {
+            this.completed = completed;
+            this.failed = failed;
+            this.queueDepth = queueDepth;
+            this.jobsPerSecond = jobsPerSecond;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+        }
+
+        public long completed() {
+            return completed;
+        }
+
+        public long failed() {
+            return failed;
+        }
+
+        public int queueDepth() {
+            return queueDepth;
+        }
+
+        public double jobsPerSecond() {
+            return jobsPerSecond;
+        }
+
+        public double p50Millis() {
+            return p50Millis;
+        }
+
+        public double p95Millis() {
+            return p95Millis;
+        }
+
+        public double p99Millis() {
+            return p99Millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("completed=%d failed=%d queued=%d jobs/s=%.1f latency ms p50=%.1f p95=%.1f p99=%.1f",
+                    completed, failed, queueDepth, jobsPerSecond, p50Millis, p95Millis, p99Millis);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package musicgenerator;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+// struct-of-arrays score: one entry per sounding pitch in parallel primitive columns
+// (pitch index into PITCH_FREQUENCIES or -1 for a rest, start and duration in ticks, voice =
+// track, chord id shared by the voices of one chord or -1, bar index within the voice), for
+// scores where the Note/Chord object graph would dominate the heap. ticks are 1/1920 of a
+// NOTE_TYPES whole note. map() reads a file from write() in place, without building objects.
+//
+// file layout, little-endian: 32-byte header (magic "MGSC", version, event count, voice
+// count, time signature numerator and denominator, song key as 8 ascii bytes), then the
+// start, duration, chord and bar int columns and the pitch and voice short columns
+public final class CompactScore {
+    public static final int TICKS_PER_WHOLE = 1920;
+    private static final int MAGIC = 0x4353474D; // "MGSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int KEY_BYTES = 8;
+    private static final int EVENT_BYTES = 4 * 4 + 2 * 2;
+
+    private final int size;
+    private final int voices;
+    private final String key;
+    private final int[] timeSignature;
+    private final IntBuffer start;
+    private final IntBuffer duration;
+    private final IntBuffer chord;
+    private final IntBuffer bar;
+    private final ShortBuffer pitch;
+    private final ShortBuffer voice;
+
+    private CompactScore(int size, int voices, String key, int[] timeSignature, IntBuffer start,
+            IntBuffer duration, IntBuffer chord, IntBuffer bar, ShortBuffer pitch, ShortBuffer voice) {
+        this.size = size;
+        this.voices = voices;
+        this.key = key;
+        this.timeSignature = timeSignature;
+        this.start = start;
+        this.duration = duration;
+        this.chord = chord;
+        this.bar = bar;
+        this.pitch = pitch;
+        this.voice = voice;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int voices() {
+        return voices;
+    }
+
+    public int pitch(int event) {
+        return pitch.get(event);
+    }
+
+    public int start(int event) {
+        return start.get(event);
+    }
+
+    public int duration(int event) {
+        return duration.get(event);
+    }
+
+    public int voice(int event) {
+        return voice.get(event);
+    }
+
+    public int chord(int event) {
+        return chord.get(event);
+    }
+
+    public int bar(int event) {
+        return bar.get(event);
+    }
+
+    // throws IllegalArgumentException for a pitch that isn't one of NOTES_DATA's
+    public static CompactScore fromSong(MusicGenerator.Song song) {
+        Builder builder = new Builder(song.key, song.timeSignature);
+        int chordId = 0;
+        for (int v = 0; v < song.tracks.size(); v++) {
+            int tick = 0;
+            List<MusicGenerator.Bar> bars = song.tracks.get(v).bars;
+            for (int b = 0; b < bars.size(); b++) {
+                for (Object item : bars.get(b).notes) {
+                    if (item instanceof MusicGenerator.Note) {
+                        MusicGenerator.Note note = (MusicGenerator.Note) item;
+                        int ticks = toTicks(note.duration);
+                        builder.add(note.note == null ? -1 : pitchIndex(note.frequency), tick, ticks, v, -1, b);
+                        tick += ticks;
+                    } else {
+                        MusicGenerator.Chord c = (MusicGenerator.Chord) item;
+                        int ticks = toTicks(c.duration);
+                        if (c.cacheKey.length == 0) {
+                            builder.add(-1, tick, ticks, v, -1, b); // every voice was out of range
+                        }
+                        for (double frequency : c.cacheKey) {
+                            builder.add(pitchIndex(frequency), tick, ticks, v, chordId, b);
+                        }
+                        chordId++;
+                        tick += ticks;
+                    }
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static int pitchIndex(double frequency) {
+        int index = MusicGenerator.pitchIndex(frequency);
+        if (index < 0) {
+            throw new IllegalArgumentException("frequency has no pitch index: " + frequency);
+        }
+        return index;
+    }
+
+    static int toTicks(double seconds) {
+        return (int) Math.round(seconds * TICKS_PER_WHOLE);
+    }
+
+    private static double toSeconds(long ticks) {
+        return (double) ticks / TICKS_PER_WHOLE;
+    }
+
+    // per-bar keys and time signatures aren't stored, every bar gets the song's
+    public MusicGenerator.Song toSong() {
+        MusicGenerator.Song song = new MusicGenerator.Song(key, timeSignature);
+        MusicGenerator.Track track = null;
+        MusicGenerator.Bar current = null;
+        int currentVoice = -1;
+        int currentBar = -1;
+        int i = 0;
+        while (i < size) {
+            if (voice(i) != currentVoice) {
+                currentVoice = voice(i);
+                currentBar = -1;
+                track = new MusicGenerator.Track(key, 0);
+                song.addTrack(track);
+            }
+            if (bar(i) != currentBar) {
+                currentBar = bar(i);
+                current = new MusicGenerator.Bar(key, timeSignature);
+                track.addBar(current);
+            }
+            int end = chordEnd(i);
+            double seconds = toSeconds(duration(i));
+            if (chord(i) < 0) {
+                int p = pitch(i);
+                current.addNoteOrChord(p < 0 ? new MusicGenerator.Note(null, 0, seconds)
+                        : new MusicGenerator.Note(MusicGenerator.CHROMATIC_SCALE[p % 12], p / 12, seconds));
+            } else {
+                current.addNoteOrChord(new MusicGenerator.Chord(frequencies(i, end), seconds));
+            }
+            i = end;
+        }
+        return song;
+    }
+
+    // one past the last event of the chord starting at event, or event + 1 for a single note
+    int chordEnd(int event) {
+        int id = chord(event);
+        int end = event + 1;
+        if (id >= 0) {
+            while (end < size && chord(end) == id && voice(end) == voice(event)) {
+                end++;
+            }
+        }
+        return end;
+    }
+
+    double[] frequencies(int from, int to) {
+        double[] frequencies = new double[to - from];
+        for (int i = from; i < to; i++) {
+            frequencies[i - from] = MusicGenerator.PITCH_FREQUENCIES[pitch(i)];
+        }
+        return frequencies;
+    }
+
+    // first sample of tick, rounded so onsets don't drift however long the score
+    public long sampleAt(long tick) {
+        return Math.round(MusicGenerator.SAMPLE_RATE * toSeconds(tick));
+    }
+
+    // truncated like every generator's (int) (SAMPLE_RATE * duration)
+    private static int sampleLength(int ticks) {
+        return (int) (MusicGenerator.SAMPLE_RATE * toSeconds(ticks));
+    }
+
+    // mixes every event in at sampleAt(start), without building a Song. Song.generateWaveform
+    // instead truncates each item's length and plays them back to back, so the two agree
+    // exactly only while every duration is a whole number of samples (quarter notes and
+    // longer at 44.1 kHz); otherwise onsets differ by under a sample per preceding event
+    public double[] render(MusicGenerator.WaveformGenerator generator) {
+        MusicGenerator.RenderMetrics.refresh();
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total = Math.max(total, sampleAt(start(i)) + sampleLength(duration(i)));
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("score too long for one array: " + total + " samples");
+        }
+
+        double[] songWaveform = new double[(int) total];
+        int i = 0;
+        while (i < size) {
+            int end = chordEnd(i);
+            if (pitch(i) >= 0) {
+                double seconds = toSeconds(duration(i));
+                double[] waveform = chord(i) < 0
+                        ? MusicGenerator.Note.render(generator, MusicGenerator.PITCH_FREQUENCIES[pitch(i)], seconds)
+                        : MusicGenerator.Chord.render(generator, frequencies(i, end), seconds);
+                int offset = (int) sampleAt(start(i));
+                int length = Math.min(waveform.length, songWaveform.length - offset);
+                MusicGenerator.Kernels.active().mix(songWaveform, offset, waveform, 0, length);
+            }
+            i = end;
+        }
+        return MusicGenerator.Waveforms.normalize(songWaveform);
+    }
+
+    public void write(Path path) throws IOException {
+        long bytes = HEADER_BYTES + (long) size * EVENT_BYTES;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(voices);
+            out.putInt(timeSignature[0]).putInt(timeSignature[1]);
+            byte[] keyBytes = Arrays.copyOf(key.getBytes(StandardCharsets.US_ASCII), KEY_BYTES);
+            out.put(keyBytes);
+
+            int offset = HEADER_BYTES;
+            for (IntBuffer column : new IntBuffer[] { start, duration, chord, bar }) {
+                out.slice(offset, size * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(column.duplicate().rewind());
+                offset += size * 4;
+            }
+            for (ShortBuffer column : new ShortBuffer[] { pitch, voice }) {
+                out.slice(offset, size * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(column.duplicate().rewind());
+                offset += size * 2;
+            }
+            out.force();
+        }
+    }
+
+    // the mapping stays valid after the channel is closed
+    public static CompactScore map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("score file too large to map: " + path);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_BYTES || in.getInt(0) != MAGIC) {
+                throw new IOException("not a score file: " + path);
+            }
+            if (in.getInt(4) != VERSION) {
+                throw new IOException("unsupported score version " + in.getInt(4) + ": " + path);
+            }
+            int size = in.getInt(8);
+            int voices = in.getInt(12);
+            if (size < 0 || voices < 0) {
+                throw new IOException("corrupt score header: " + path);
+            }
+            int[] timeSignature = { in.getInt(16), in.getInt(20) };
+            byte[] keyBytes = new byte[KEY_BYTES];
+            in.get(24, keyBytes);
+            String key = new String(keyBytes, StandardCharsets.US_ASCII).trim();
+            if (channel.size() < HEADER_BYTES + (long) size * EVENT_BYTES) {
+                throw new IOException("truncated score file: " + path);
+            }
+
+            int offset = HEADER_BYTES;
+            IntBuffer[] ints = new IntBuffer[4];
+            for (int c = 0; c < ints.length; c++) {
+                ints[c] = in.slice(offset, size * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                offset += size * 4;
+            }
+            ShortBuffer[] shorts = new ShortBuffer[2];
+            for (int c = 0; c < shorts.length; c++) {
+                shorts[c] = in.slice(offset, size * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                offset += size * 2;
+            }
+            return new CompactScore(size, voices, key, timeSignature, ints[0], ints[1], ints[2], ints[3],
+                    shorts[0], shorts[1]);
+        }
+    }
+
+    // heap-backed score built one event at a time; the columns grow by doubling
+    public static final class Builder {
+        private final String key;
+        private final int[] timeSignature;
+        private int size;
+        private int voices;
+        private int[] start = new int[16];
+        private int[] duration = new int[16];
+        private int[] chord = new int[16];
+        private int[] bar = new int[16];
+        private short[] pitch = new short[16];
+        private short[] voice = new short[16];
+
+        public Builder(String key, int[] timeSignature) {
+            this.key = key;
+            this.timeSignature = timeSignature.clone();
+        }
+
+        public Builder add(int pitchIndex, int startTick, int durationTicks, int voiceIndex, int chordId, int barIndex) {
+            if (pitchIndex >= MusicGenerator.PITCH_FREQUENCIES.length || pitchIndex < -1) {
+                throw new IllegalArgumentException("invalid pitch index: " + pitchIndex);
+            }
+            if (size == start.length) {
+                int capacity = size * 2;
+                start = Arrays.copyOf(start, capacity);
+                duration = Arrays.copyOf(duration, capacity);
+                chord = Arrays.copyOf(chord, capacity);
+                bar = Arrays.copyOf(bar, capacity);
+                pitch = Arrays.copyOf(pitch, capacity);
+                voice = Arrays.copyOf(voice, capacity);
+            }
+            start[size] = startTick;
+            duration[size] = durationTicks;
+            chord[size] = chordId;
+            bar[size] = barIndex;
+            pitch[size] = (short) pitchIndex;
+            voice[size] = (short) voiceIndex;
+            voices = Math.max(voices, voiceIndex + 1);
+            size++;
+            return this;
+        }
+
+        public CompactScore build() {
+            return new CompactScore(size, voices, key, timeSignature, IntBuffer.wrap(start, 0, size).slice(),
+                    IntBuffer.wrap(duration, 0, size).slice(), IntBuffer.wrap(chord, 0, size).slice(),
+                    IntBuffer.wrap(bar, 0, size).slice(), ShortBuffer.wrap(pitch, 0, size).slice(),
+                    ShortBuffer.wrap(voice, 0, size).slice());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package musicgenerator;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// SampleBuffer over a MemorySegment in native memory or a mapped file. each buffer owns a
+// shared Arena, so any render thread can use it, and close() frees or unmaps the segment at
+// once instead of at some later gc
+final class ForeignSampleBuffer implements SampleBuffer {
+    private static final int BLOCK = 1 << 16;
+    // add() sums through a heap block in the active Kernels' mix loop instead of one get and set
+    // per sample; per thread, since render threads share buffers
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[BLOCK]);
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final long length;
+
+    private ForeignSampleBuffer(Arena arena, MemorySegment segment, long length) {
+        this.arena = arena;
+        this.segment = segment;
+        this.length = length;
+    }
+
+    // arena allocations start out zeroed
+    static ForeignSampleBuffer allocate(long length) {
+        checkLength(length);
+        Arena arena = Arena.ofShared();
+        try {
+            return new ForeignSampleBuffer(arena, arena.allocate(length * Double.BYTES, Double.BYTES), length);
+        } catch (RuntimeException | Error e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    static ForeignSampleBuffer map(Path path, long length) throws IOException {
+        checkLength(length);
+        Arena arena = Arena.ofShared();
+        // truncated so a reused file starts out as zeros; mapping extends it to the full size
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, length * Double.BYTES, arena);
+            return new ForeignSampleBuffer(arena, segment, length);
+        } catch (IOException | RuntimeException | Error e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    private static void checkLength(long length) {
+        if (length < 0 || length > Long.MAX_VALUE / Double.BYTES) {
+            throw new IllegalArgumentException("invalid length: " + length);
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void read(long index, double[] dst, int offset, int n) {
+        checkRange(index, n);
+        MemorySegment.copy(segment, ValueLayout.JAVA_DOUBLE, index * Double.BYTES, dst, offset, n);
+    }
+
+    @Override
+    public void write(long index, double[] src, int offset, int n) {
+        checkRange(index, n);
+        MemorySegment.copy(src, offset, segment, ValueLayout.JAVA_DOUBLE, index * Double.BYTES, n);
+    }
+
+    @Override
+    public void add(long index, double[] src, int offset, int n) {
+        checkRange(index, n);
+        double[] scratch = SCRATCH.get();
+        MusicGenerator.Kernels kernels = MusicGenerator.Kernels.active();
+        while (n > 0) {
+            int count = Math.min(n, BLOCK);
+            read(index, scratch, 0, count);
+            kernels.mix(scratch, 0, src, offset, count);
+            write(index, scratch, 0, count);
+            index += count;
+            offset += count;
+            n -= count;
+        }
+    }
+
+    @Override
+    public void clear(long from, long to) {
+        checkRange(from, 0);
+        checkRange(to, 0);
+        segment.asSlice(from * Double.BYTES, (to - from) * Double.BYTES).fill((byte) 0);
+    }
+
+    private void checkRange(long index, int n) {
+        if (index < 0 || n < 0 || index > length - n) {
+            throw new IndexOutOfBoundsException("samples [" + index + ", " + (index + n) + ") of " + length);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (arena.scope().isAlive()) {
+            arena.close();
+        }
+    }
+}
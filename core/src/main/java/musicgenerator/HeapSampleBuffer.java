@@ -0,0 +1,95 @@
+package musicgenerator;
+
+import java.util.Arrays;
+
+// chunks of 2^20 doubles, so no single huge array and no 2^31 limit, but still bounded by -Xmx
+final class HeapSampleBuffer implements SampleBuffer {
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    private final long length;
+    private double[][] chunks;
+
+    HeapSampleBuffer(long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("negative length: " + length);
+        }
+        this.length = length;
+        this.chunks = new double[(int) ((length + CHUNK - 1) >>> CHUNK_BITS)][];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = new double[(int) Math.min(CHUNK, length - ((long) c << CHUNK_BITS))];
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void read(long index, double[] dst, int offset, int n) {
+        checkRange(index, n);
+        while (n > 0) {
+            double[] chunk = chunks[(int) (index >>> CHUNK_BITS)];
+            int pos = (int) (index & (CHUNK - 1));
+            int count = Math.min(n, chunk.length - pos);
+            System.arraycopy(chunk, pos, dst, offset, count);
+            index += count;
+            offset += count;
+            n -= count;
+        }
+    }
+
+    @Override
+    public void write(long index, double[] src, int offset, int n) {
+        checkRange(index, n);
+        while (n > 0) {
+            double[] chunk = chunks[(int) (index >>> CHUNK_BITS)];
+            int pos = (int) (index & (CHUNK - 1));
+            int count = Math.min(n, chunk.length - pos);
+            System.arraycopy(src, offset, chunk, pos, count);
+            index += count;
+            offset += count;
+            n -= count;
+        }
+    }
+
+    @Override
+    public void add(long index, double[] src, int offset, int n) {
+        checkRange(index, n);
+        MusicGenerator.Kernels kernels = MusicGenerator.Kernels.active();
+        while (n > 0) {
+            double[] chunk = chunks[(int) (index >>> CHUNK_BITS)];
+            int pos = (int) (index & (CHUNK - 1));
+            int count = Math.min(n, chunk.length - pos);
+            kernels.mix(chunk, pos, src, offset, count);
+            index += count;
+            offset += count;
+            n -= count;
+        }
+    }
+
+    @Override
+    public void clear(long from, long to) {
+        checkRange(from, 0);
+        checkRange(to, 0);
+        for (long i = from; i < to; ) {
+            double[] chunk = chunks[(int) (i >>> CHUNK_BITS)];
+            int pos = (int) (i & (CHUNK - 1));
+            int count = (int) Math.min(to - i, chunk.length - pos);
+            Arrays.fill(chunk, pos, pos + count, 0.0);
+            i += count;
+        }
+    }
+
+    private void checkRange(long index, int n) {
+        if (index < 0 || n < 0 || index > length - n) {
+            throw new IndexOutOfBoundsException("samples [" + index + ", " + (index + n) + ") of " + length);
+        }
+    }
+
+    @Override
+    public void close() {
+        chunks = null;
+    }
+}
@@ -0,0 +1,197 @@
+package musicgenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// renders a MidiReader block by block, reading it only up to the end of the current block.
+// each note is a voice from its note-on with MusicGenerator.Waveforms.envelope's attack, decay and sustain,
+// released at its note-off (or after maxNoteSeconds if that never comes). the first
+// ONSET_SECONDS of each pitch are synthesized once and mixed in scaled by velocity; the rest
+// is synthesized per voice. memory is one block, a few fields per voice and one onset per
+// pitch played. the mix is gain * velocity / 127 with no global peak, so WavWriter and
+// toPcm16 clip anything past full scale
+public final class MidiStream implements MusicGenerator.BlockSource {
+    private static final double DEFAULT_MAX_NOTE_SECONDS = 60;
+    private static final double ONSET_SECONDS = 0.5;
+
+    private final MidiReader reader;
+    private final MusicGenerator.WavetableOscillator oscillator;
+    private final double gain;
+    private final long maxNoteSamples;
+    private final double[] block;
+    private final Voice[] held = new Voice[16 * 128]; // by channel * 128 + key, as in MidiReader
+    private final List<Voice> voices = new ArrayList<>();
+    private final int attack = (int) (MusicGenerator.Waveforms.ATTACK_TIME * MusicGenerator.SAMPLE_RATE);
+    private final int decay = (int) (MusicGenerator.Waveforms.DECAY_TIME * MusicGenerator.SAMPLE_RATE);
+    private final int release = (int) (MusicGenerator.Waveforms.RELEASE_TIME * MusicGenerator.SAMPLE_RATE);
+    private final int onsetLength = Math.max(attack + decay, (int) (ONSET_SECONDS * MusicGenerator.SAMPLE_RATE));
+    private final double[][] onsets = new double[MusicGenerator.PITCH_FREQUENCIES.length][]; // by pitch, built on first use
+    private final MidiReader.NoteListener listener = new MidiReader.NoteListener() {
+        @Override
+        public void noteOn(int slot, int pitch, int velocity, long sample) {
+            Voice voice = new Voice(slot, pitch, gain * velocity / 127.0, sample, sample + maxNoteSamples);
+            voices.add(voice);
+            held[slot] = voice;
+        }
+
+        @Override
+        public void noteOff(int slot, long sample) {
+            Voice voice = held[slot];
+            if (voice != null) {
+                voice.releaseSample = Math.min(voice.releaseSample, sample);
+                held[slot] = null;
+            }
+        }
+    };
+    private long position;
+    private boolean more = true;
+
+    public MidiStream(MidiReader reader, MusicGenerator.WavetableOscillator oscillator, int blockSize, double gain) {
+        this(reader, oscillator, blockSize, gain, DEFAULT_MAX_NOTE_SECONDS);
+    }
+
+    public MidiStream(MidiReader reader, MusicGenerator.WavetableOscillator oscillator, int blockSize, double gain, double maxNoteSeconds) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        }
+        if (!(maxNoteSeconds > 0)) {
+            throw new IllegalArgumentException("max note length must be positive: " + maxNoteSeconds);
+        }
+        this.reader = reader;
+        this.oscillator = oscillator;
+        this.gain = gain;
+        this.maxNoteSamples = (long) (maxNoteSeconds * MusicGenerator.SAMPLE_RATE);
+        this.block = new double[blockSize];
+    }
+
+    @Override
+    public double[] buffer() {
+        return block;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long blockEnd = position + block.length;
+        if (more) {
+            more = reader.readUntil(blockEnd, listener);
+        }
+
+        // until the file is exhausted there may be more notes after a silent stretch;
+        // after it every voice has a release and the stream ends with the last one
+        int frames = block.length;
+        if (!more) {
+            long end = position;
+            for (Voice voice : voices) {
+                end = Math.max(end, voice.releaseSample + release);
+            }
+            frames = (int) Math.min(block.length, end - position);
+        }
+        if (frames == 0) {
+            return 0;
+        }
+        Arrays.fill(block, 0.0);
+        for (int n = voices.size() - 1; n >= 0; n--) {
+            Voice voice = voices.get(n);
+            if (voice.render(frames)) {
+                voices.remove(n);
+                if (held[voice.slot] == voice) {
+                    held[voice.slot] = null; // released by maxNoteSamples, not a note-off
+                }
+            }
+        }
+        position += frames;
+        return frames;
+    }
+
+    public long eventsRead() {
+        return reader.eventsRead();
+    }
+
+    // voices currently sounding, held or in their release
+    public int voices() {
+        return voices.size();
+    }
+
+    // the oscillator times the held envelope (attack, decay, then sustain) at level 1.0
+    private double[] onset(int pitch) {
+        double[] onset = onsets[pitch];
+        if (onset == null) {
+            double frequency = MusicGenerator.PITCH_FREQUENCIES[pitch];
+            onset = new double[onsetLength];
+            oscillator.oscillateAdd(frequency, 0, 0.0, 1.0 / attack, onset, 0, attack);
+            oscillator.oscillateAdd(frequency, attack, 1.0, -(1.0 - MusicGenerator.Waveforms.SUSTAIN_LEVEL) / decay, onset, attack,
+                    attack + decay);
+            oscillator.oscillateAdd(frequency, attack + decay, MusicGenerator.Waveforms.SUSTAIN_LEVEL, 0.0, onset, attack + decay,
+                    onsetLength);
+            onsets[pitch] = onset;
+        }
+        return onset;
+    }
+
+    // one note from its note-on; its oscillator accumulator follows from its age, so the
+    // only state carried between blocks is the release sample
+    private final class Voice {
+        private final int slot;
+        private final double frequency;
+        private final double[] onset;
+        private final double level;
+        private final long startSample;
+        private long releaseSample;
+
+        Voice(int slot, int pitch, double level, long startSample, long releaseSample) {
+            this.slot = slot;
+            this.frequency = MusicGenerator.PITCH_FREQUENCIES[pitch];
+            this.onset = onset(pitch);
+            this.level = level;
+            this.startSample = startSample;
+            this.releaseSample = releaseSample;
+        }
+
+        // adds its part of block[0, frames) at position, returns true once the release is over
+        boolean render(int frames) {
+            long end = releaseSample + release;
+            int from = (int) Math.max(0, startSample - position);
+            int to = (int) Math.min(frames, end - position);
+            if (from < to) {
+                int released = clamp(releaseSample, from, to);
+                int copied = Math.min(released, clamp(startSample + onsetLength, from, to));
+                long age = position - startSample; // of block[0]
+                if (from < copied) {
+                    int offset = (int) age;
+                    for (int i = from; i < copied; i++) {
+                        block[i] += onset[offset + i] * level;
+                    }
+                }
+                // held past the onset, so in the sustain
+                oscillator.oscillateAdd(frequency, age + copied, level * MusicGenerator.Waveforms.SUSTAIN_LEVEL, 0.0, block, copied,
+                        released);
+                if (released < to) {
+                    double releaseLevel = level * heldLevel(releaseSample - startSample);
+                    long releaseAge = position - releaseSample;
+                    oscillator.oscillateAdd(frequency, age + released,
+                            releaseLevel * (1.0 - (double) (releaseAge + released) / release), -releaseLevel / release,
+                            block, released, to);
+                }
+            }
+            return end <= position + frames;
+        }
+
+        // block index of sample, limited to [from, to]
+        private int clamp(long sample, int from, int to) {
+            return (int) Math.max(from, Math.min(to, sample - position));
+        }
+
+        // envelope level while the note is held: attack to 1.0, decay to SUSTAIN_LEVEL
+        private double heldLevel(long age) {
+            if (age < attack) {
+                return (double) age / attack;
+            }
+            if (age < attack + decay) {
+                return 1.0 - (1.0 - MusicGenerator.Waveforms.SUSTAIN_LEVEL) * (age - attack) / decay;
+            }
+            return MusicGenerator.Waveforms.SUSTAIN_LEVEL;
+        }
+    }
+}
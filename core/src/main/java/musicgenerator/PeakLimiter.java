@@ -0,0 +1,170 @@
+package musicgenerator;
+
+import java.util.Arrays;
+
+// single-pass output stage in place of whole-buffer normalize: a look-ahead peak limiter
+// with optional loudness targeting. every sample comes out latency() samples after it went
+// in. its gain is the mean, over a window as long as the look-ahead, of the sliding minimum
+// of ceiling / |x|, so the gain has already ramped down smoothly when a peak reaches the
+// output and no sample exceeds the ceiling; afterwards it recovers with the release time
+// constant. memory is the delay line plus two windows of look-ahead length, however long the
+// signal. with targetLoudness the input is first scaled towards a target rms level measured
+// over a sliding window, so quiet and loud material come out at similar loudness with the
+// limiter catching the peaks. instances are stateful and single-threaded; copy() gives a
+// fresh one with the same settings (SongStream takes one per track)
+public final class PeakLimiter {
+    private static final double MAX_LOUDNESS_GAIN = 16; // +24 db, so near-silence isn't blown up
+
+    private final double ceiling;
+    private final int lookahead;
+    private final double releaseCoefficient;
+    private double targetRms;
+    private double loudnessCoefficient;
+
+    // delay line of lookahead samples, sliding windows of lookahead + 1
+    private final double[] delay;
+    private final double[] minValues;
+    private final long[] minIndices;
+    private final double[] boxValues;
+    private int minHead;
+    private int minCount;
+    private double boxSum;
+    private long position;
+    private double gain;
+    private double meanSquare;
+
+    // ceiling in (0, 1], e.g. 0.99; a few ms of look-ahead is enough for audio-rate peaks
+    public PeakLimiter(double ceiling, double lookaheadSeconds, double releaseSeconds) {
+        this(ceiling, samples(lookaheadSeconds), releaseSeconds == 0 ? 1.0 : coefficient(releaseSeconds));
+        if (!(ceiling > 0 && ceiling <= 1)) {
+            throw new IllegalArgumentException("ceiling must be in (0, 1]: " + ceiling);
+        }
+        if (!(releaseSeconds >= 0)) {
+            throw new IllegalArgumentException("invalid release time: " + releaseSeconds);
+        }
+    }
+
+    private PeakLimiter(double ceiling, int lookahead, double releaseCoefficient) {
+        this.ceiling = ceiling;
+        this.lookahead = lookahead;
+        this.releaseCoefficient = releaseCoefficient;
+        int window = lookahead + 1;
+        this.delay = new double[lookahead];
+        this.minValues = new double[window];
+        this.minIndices = new long[window];
+        this.boxValues = new double[window];
+        reset();
+    }
+
+    private static int samples(double seconds) {
+        if (!(seconds >= 0) || seconds > 1) {
+            throw new IllegalArgumentException("look-ahead must be in [0, 1] seconds: " + seconds);
+        }
+        return (int) Math.round(seconds * MusicGenerator.SAMPLE_RATE);
+    }
+
+    // one-pole smoothing coefficient for a time constant
+    private static double coefficient(double seconds) {
+        return 1.0 - Math.exp(-1.0 / (seconds * MusicGenerator.SAMPLE_RATE));
+    }
+
+    // -0.1 dbfs ceiling, 5 ms look-ahead, 50 ms release
+    public static PeakLimiter standard() {
+        return new PeakLimiter(0.989, 0.005, 0.05);
+    }
+
+    // scale the input towards rmsDbfs (e.g. -18) measured over windowSeconds before limiting
+    public PeakLimiter targetLoudness(double rmsDbfs, double windowSeconds) {
+        if (!(windowSeconds > 0) || !(rmsDbfs <= 0)) {
+            throw new IllegalArgumentException("invalid loudness target: " + rmsDbfs + " dbfs over " + windowSeconds + "s");
+        }
+        this.targetRms = Math.pow(10, rmsDbfs / 20);
+        this.loudnessCoefficient = coefficient(windowSeconds);
+        this.meanSquare = targetRms * targetRms;
+        return this;
+    }
+
+    public PeakLimiter copy() {
+        PeakLimiter copy = new PeakLimiter(ceiling, lookahead, releaseCoefficient);
+        copy.targetRms = targetRms;
+        copy.loudnessCoefficient = loudnessCoefficient;
+        copy.meanSquare = targetRms * targetRms;
+        return copy;
+    }
+
+    // samples between a sample going in and coming out
+    public int latency() {
+        return lookahead;
+    }
+
+    public void reset() {
+        Arrays.fill(delay, 0.0);
+        Arrays.fill(boxValues, 1.0);
+        boxSum = boxValues.length;
+        minHead = 0;
+        minCount = 0;
+        position = 0;
+        gain = 1.0;
+        meanSquare = targetRms * targetRms;
+    }
+
+    // replaces buffer[offset, offset + length) with the output, i.e. the input delayed by
+    // latency() with the gain applied; the first latency() samples after a reset are silence
+    public void process(double[] buffer, int offset, int length) {
+        int window = lookahead + 1;
+        for (int i = offset; i < offset + length; i++) {
+            double x = buffer[i];
+            if (targetRms > 0) {
+                meanSquare += (x * x - meanSquare) * loudnessCoefficient;
+                x *= Math.min(MAX_LOUDNESS_GAIN, targetRms / Math.sqrt(Math.max(meanSquare, 1e-20)));
+            }
+            double abs = Math.abs(x);
+            double required = abs > ceiling ? ceiling / abs : 1.0;
+
+            // sliding minimum of required over the last window samples, as a monotonic deque
+            if (minCount > 0 && minIndices[minHead] <= position - window) {
+                minHead = (minHead + 1) % window;
+                minCount--;
+            }
+            while (minCount > 0 && minValues[(minHead + minCount - 1) % window] >= required) {
+                minCount--;
+            }
+            minValues[(minHead + minCount) % window] = required;
+            minIndices[(minHead + minCount) % window] = position;
+            minCount++;
+
+            // box filter of the minimum over the same window
+            int slot = (int) (position % window);
+            boxSum += minValues[minHead] - boxValues[slot];
+            boxValues[slot] = minValues[minHead];
+            double target = Math.min(1.0, boxSum / window);
+            gain = target < gain ? target : gain + (target - gain) * releaseCoefficient;
+
+            double delayed = x;
+            if (lookahead > 0) {
+                int tap = (int) (position % lookahead);
+                delayed = delay[tap];
+                delay[tap] = x;
+            }
+            double y = delayed * gain;
+            // guards the running sum's rounding, the gain alone keeps y within ceiling
+            buffer[i] = Math.max(-ceiling, Math.min(ceiling, y));
+            position++;
+        }
+    }
+
+    // limits a whole buffer in place with the delay removed, so the output lines up with the
+    // input; the delay line is flushed with silence at the end
+    public void apply(double[] waveform) {
+        int n = waveform.length;
+        process(waveform, 0, n);
+        double[] tail = new double[lookahead];
+        process(tail, 0, lookahead);
+        if (n >= lookahead) {
+            System.arraycopy(waveform, lookahead, waveform, 0, n - lookahead);
+            System.arraycopy(tail, 0, waveform, n - lookahead, lookahead);
+        } else {
+            System.arraycopy(tail, lookahead - n, waveform, 0, n);
+        }
+    }
+}
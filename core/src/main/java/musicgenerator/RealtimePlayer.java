@@ -0,0 +1,251 @@
+package musicgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+// real-time playback: a render thread fills a ring buffer while the calling thread feeds the sink
+// one period at a time. an underrun is the sink waiting on the renderer, an overrun the renderer
+// waiting on a full ring
+public final class RealtimePlayer {
+    private static final long WAIT_NANOS = 100_000;
+
+    private final MusicGenerator.BlockSource stream;
+    private final AudioSink sink;
+    private final int periodFrames;
+    private final SampleRing ring;
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong framesPlayed = new AtomicLong();
+    // of the constructing thread, for the render thread
+    private final boolean normalize = MusicGenerator.Waveforms.normalizesNotes();
+    private volatile boolean rendered;
+    private volatile Throwable renderFailure;
+
+    public RealtimePlayer(MusicGenerator.BlockSource stream, AudioSink sink, int periodFrames, int bufferFrames) {
+        if (periodFrames <= 0 || bufferFrames < periodFrames) {
+            throw new IllegalArgumentException("need 0 < periodFrames <= bufferFrames, got "
+                    + periodFrames + " and " + bufferFrames);
+        }
+        this.stream = stream;
+        this.sink = sink;
+        this.periodFrames = periodFrames;
+        this.ring = new SampleRing(bufferFrames);
+    }
+
+    // buffer sized for the latency target, split into four periods
+    public static RealtimePlayer withLatency(MusicGenerator.BlockSource stream, AudioSink sink, double latencyMillis) {
+        int bufferFrames = Math.max(4, (int) (latencyMillis * MusicGenerator.SAMPLE_RATE / 1000));
+        return new RealtimePlayer(stream, sink, bufferFrames / 4, bufferFrames);
+    }
+
+    // blocks until the whole stream has been written to the sink and drained
+    public void play() throws InterruptedException {
+        Thread renderer = new Thread(() -> MusicGenerator.Waveforms.withNormalizeNotes(normalize, () -> {
+            render();
+            return null;
+        }), "realtime-render");
+        renderer.setDaemon(true);
+        renderer.start();
+
+        double[] period = new double[periodFrames];
+        byte[] pcm = new byte[periodFrames * 2];
+        try {
+            // prime one period so playback doesn't open with an underrun
+            while (!rendered && ring.available() < periodFrames) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+            while (true) {
+                // read before polling, so a short poll after it has taken the last block
+                boolean finished = rendered;
+                int frames = ring.poll(period, 0, periodFrames);
+                if (frames < periodFrames && !finished) {
+                    underruns.incrementAndGet();
+                    while (frames < periodFrames && !finished) {
+                        LockSupport.parkNanos(WAIT_NANOS);
+                        finished = rendered;
+                        frames += ring.poll(period, frames, periodFrames - frames);
+                    }
+                }
+                if (frames == 0) {
+                    break;
+                }
+                MusicGenerator.toPcm16(period, frames, pcm);
+                sink.write(pcm, 0, frames * 2);
+                framesPlayed.addAndGet(frames);
+            }
+            sink.drain();
+        } finally {
+            renderer.interrupt();
+            renderer.join();
+        }
+        if (renderFailure != null) {
+            throw new IllegalStateException("render thread failed", renderFailure);
+        }
+    }
+
+    private void render() {
+        try {
+            int frames;
+            while ((frames = stream.read()) > 0) {
+                int offset = ring.offer(stream.buffer(), 0, frames);
+                if (offset < frames) {
+                    overruns.incrementAndGet();
+                }
+                while (offset < frames) {
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                    LockSupport.parkNanos(WAIT_NANOS);
+                    offset += ring.offer(stream.buffer(), offset, frames - offset);
+                }
+            }
+        } catch (Throwable t) {
+            renderFailure = t;
+        } finally {
+            rendered = true;
+        }
+    }
+
+    public long underruns() {
+        return underruns.get();
+    }
+
+    public long overruns() {
+        return overruns.get();
+    }
+
+    public long framesPlayed() {
+        return framesPlayed.get();
+    }
+
+    // where the player sends 16-bit signed big-endian mono frames at SAMPLE_RATE
+    public interface AudioSink extends AutoCloseable {
+        // blocks until the data is accepted
+        void write(byte[] data, int offset, int length);
+
+        void drain();
+
+        @Override
+        void close();
+    }
+
+    // the sound card
+    public static final class LineSink implements AudioSink {
+        private final SourceDataLine line;
+
+        public LineSink(int bufferFrames) throws LineUnavailableException {
+            AudioFormat format = new AudioFormat(MusicGenerator.SAMPLE_RATE, 16, 1, true, true);
+            DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+            line = (SourceDataLine) AudioSystem.getLine(info);
+            line.open(format, bufferFrames * 2);
+            line.start();
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            line.write(data, offset, length);
+        }
+
+        @Override
+        public void drain() {
+            line.drain();
+        }
+
+        @Override
+        public void close() {
+            line.close();
+        }
+    }
+
+    // discards audio as fast as it arrives, for benchmarks
+    public static final class NullSink implements AudioSink {
+        private long bytes;
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            bytes += length;
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public long bytesWritten() {
+            return bytes;
+        }
+    }
+
+    // keeps everything written, for checking output without a sound device
+    public static final class MemorySink implements AudioSink {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(byte[] data, int offset, int length) {
+            out.write(data, offset, length);
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public synchronized byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    // lock-free single-producer/single-consumer ring; each index has one writer and is published
+    // with an ordered store
+    private static final class SampleRing {
+        private final double[] samples;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(); // next slot to read, consumer-owned
+        private final AtomicLong tail = new AtomicLong(); // next slot to write, producer-owned
+
+        SampleRing(int minCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+            this.samples = new double[capacity];
+            this.mask = capacity - 1;
+        }
+
+        int available() {
+            return (int) (tail.get() - head.get());
+        }
+
+        // producer side, returns how many samples fit
+        int offer(double[] src, int offset, int length) {
+            long t = tail.get();
+            int n = Math.min(length, samples.length - (int) (t - head.get()));
+            for (int i = 0; i < n; i++) {
+                samples[(int) (t + i) & mask] = src[offset + i];
+            }
+            tail.lazySet(t + n);
+            return n;
+        }
+
+        // consumer side, returns how many samples were taken
+        int poll(double[] dst, int offset, int length) {
+            long h = head.get();
+            int n = Math.min(length, (int) (tail.get() - h));
+            for (int i = 0; i < n; i++) {
+                dst[offset + i] = samples[(int) (h + i) & mask];
+            }
+            head.lazySet(h + n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package musicgenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+// long-indexed sample storage for renders too big for one double[] or for the heap, see
+// Song.renderTo. heap() keeps chunks of double[]; offHeap() and mapped() hold the samples in
+// native memory or a memory-mapped file through java.lang.foreign, so a render is bounded by
+// ram or disk rather than -Xmx, and close() frees or unmaps it at once. java.lang.foreign is a
+// preview api on jdk 21, so those two need the jvm run with --enable-preview
+public interface SampleBuffer extends AutoCloseable {
+    long length();
+
+    // dst[offset, offset + length) = samples [index, index + length)
+    void read(long index, double[] dst, int offset, int length);
+
+    // samples [index, index + length) = src[offset, offset + length)
+    void write(long index, double[] src, int offset, int length);
+
+    // samples [index, index + length) += src[offset, offset + length)
+    void add(long index, double[] src, int offset, int length);
+
+    // samples [from, to) = 0
+    default void clear(long from, long to) {
+        double[] zeros = new double[block(from, to)];
+        for (long i = from; i < to; i += zeros.length) {
+            write(i, zeros, 0, (int) Math.min(zeros.length, to - i));
+        }
+    }
+
+    @Override
+    void close();
+
+    default double maxAbs(long from, long to) {
+        double[] block = new double[block(from, to)];
+        MusicGenerator.Kernels kernels = MusicGenerator.Kernels.active();
+        double max = 0;
+        for (long i = from; i < to; i += block.length) {
+            int n = (int) Math.min(block.length, to - i);
+            read(i, block, 0, n);
+            max = Math.max(max, kernels.maxAbs(block, 0, n));
+        }
+        return max;
+    }
+
+    default void divide(long from, long to, double divisor) {
+        double[] block = new double[block(from, to)];
+        MusicGenerator.Kernels kernels = MusicGenerator.Kernels.active();
+        for (long i = from; i < to; i += block.length) {
+            int n = (int) Math.min(block.length, to - i);
+            read(i, block, 0, n);
+            kernels.divide(block, 0, n, divisor);
+            write(i, block, 0, n);
+        }
+    }
+
+    // sequential reader over the whole buffer, e.g. WavWriter.write(buffer.blocks(65536), ...)
+    default MusicGenerator.BlockSource blocks(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        }
+        double[] block = new double[blockSize];
+        return new MusicGenerator.BlockSource() {
+            private long position;
+
+            @Override
+            public double[] buffer() {
+                return block;
+            }
+
+            @Override
+            public int read() {
+                int n = (int) Math.min(blockSize, length() - position);
+                SampleBuffer.this.read(position, block, 0, n);
+                position += n;
+                return n;
+            }
+        };
+    }
+
+    static SampleBuffer heap(long length) {
+        return new HeapSampleBuffer(length);
+    }
+
+    // zero-filled native memory. counts against -XX:MaxDirectMemorySize, which defaults to -Xmx,
+    // so raise it for renders bigger than the heap or use mapped()
+    static SampleBuffer offHeap(long length) {
+        return ForeignSampleBuffer.allocate(length);
+    }
+
+    // a file of length native-order doubles, created or truncated to zeros; the file stays on
+    // disk after close()
+    static SampleBuffer mapped(Path path, long length) {
+        try {
+            return ForeignSampleBuffer.map(path, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // scratch size for the block-wise defaults
+    private static int block(long from, long to) {
+        return (int) Math.max(0, Math.min(1 << 16, to - from));
+    }
+}
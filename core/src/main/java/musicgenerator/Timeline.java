@@ -0,0 +1,186 @@
+package musicgenerator;
+
+import java.util.Arrays;
+
+// events on a tick grid (PPQ ticks per quarter note, the same grid as CompactScore) at a fixed
+// tempo, each with a start and length in ticks. unlike the bar-by-bar concatenation in
+// Song.generateWaveform, events are placed independently, so they can overlap (chords held
+// across a melody, polyphony within one track) and a bar shorter than its time signature is
+// padded with silence. render() synthesizes each event into one shared output buffer at its
+// sample offset: WavetableOscillator events go through a single reused scratch buffer, other
+// generators add their cached RenderCache arrays in place, so there are no per-note copies and
+// no concatenation. for a song of full 4/4 bars of quarter, half and whole notes at the
+// default tempo the result is identical to Song.generateWaveform
+public final class Timeline {
+    public static final int PPQ = 480;
+
+    private final double tempo;
+    private int size;
+    private long[] start = new long[16];
+    private int[] length = new int[16];
+    private double[][] frequencies = new double[16][];
+    private boolean[] chord = new boolean[16];
+
+    public Timeline(double tempo) {
+        if (!(tempo > 0) || Double.isInfinite(tempo)) {
+            throw new IllegalArgumentException("invalid tempo: " + tempo);
+        }
+        this.tempo = tempo;
+    }
+
+    // bars are placed back to back at the length of their own time signature, with each bar's
+    // notes and chords in sequence from its start
+    public static Timeline fromSong(MusicGenerator.Song song) {
+        Timeline timeline = new Timeline(song.tempo());
+        for (MusicGenerator.Track track : song.tracks) {
+            long barStart = 0;
+            for (MusicGenerator.Bar bar : track.bars) {
+                long tick = barStart;
+                for (Object item : bar.notes) {
+                    if (item instanceof MusicGenerator.Note) {
+                        MusicGenerator.Note note = (MusicGenerator.Note) item;
+                        int ticks = CompactScore.toTicks(note.duration);
+                        timeline.add(tick, ticks, note);
+                        tick += ticks;
+                    } else {
+                        MusicGenerator.Chord c = (MusicGenerator.Chord) item;
+                        int ticks = CompactScore.toTicks(c.duration);
+                        timeline.add(tick, ticks, c);
+                        tick += ticks;
+                    }
+                }
+                barStart += ticksPerBar(bar.timeSignature);
+            }
+        }
+        return timeline;
+    }
+
+    // a score's starts are already ticks on this grid
+    public static Timeline fromScore(CompactScore score, double tempo) {
+        Timeline timeline = new Timeline(tempo);
+        for (int i = 0; i < score.size(); ) {
+            int end = score.chordEnd(i);
+            double[] voices = score.pitch(i) < 0 ? new double[0] : score.frequencies(i, end);
+            timeline.add(score.start(i), score.duration(i), voices, score.chord(i) >= 0);
+            i = end;
+        }
+        return timeline;
+    }
+
+    public static int ticksPerBar(int[] timeSignature) {
+        if (timeSignature.length != 2 || timeSignature[0] <= 0 || timeSignature[1] <= 0
+                || CompactScore.TICKS_PER_WHOLE % timeSignature[1] != 0) {
+            throw new IllegalArgumentException("invalid time signature: " + Arrays.toString(timeSignature));
+        }
+        return timeSignature[0] * (CompactScore.TICKS_PER_WHOLE / timeSignature[1]);
+    }
+
+    // a rest is an event without voices: silent, but it still extends the render
+    public Timeline add(long startTick, int lengthTicks, MusicGenerator.Note note) {
+        return add(startTick, lengthTicks, note.note == null ? new double[0] : new double[] { note.frequency }, false);
+    }
+
+    public Timeline add(long startTick, int lengthTicks, MusicGenerator.Chord chord) {
+        return add(startTick, lengthTicks, chord.cacheKey, true);
+    }
+
+    // chord selects Chord rendering (normalized voice sum) over Note rendering; frequencies
+    // becomes a cache key and must not be modified afterwards
+    Timeline add(long startTick, int lengthTicks, double[] voices, boolean isChord) {
+        if (startTick < 0 || lengthTicks < 0) {
+            throw new IllegalArgumentException("invalid event: start " + startTick + ", length " + lengthTicks);
+        }
+        if (size == start.length) {
+            int capacity = size * 2;
+            start = Arrays.copyOf(start, capacity);
+            length = Arrays.copyOf(length, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            chord = Arrays.copyOf(chord, capacity);
+        }
+        start[size] = startTick;
+        length[size] = lengthTicks;
+        frequencies[size] = voices;
+        chord[size] = isChord;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double tempo() {
+        return tempo;
+    }
+
+    public double seconds(long ticks) {
+        return ticks * 60.0 / (PPQ * tempo);
+    }
+
+    // rounded to the nearest sample, so event starts don't drift however long the song
+    public long sampleAt(long tick) {
+        return Math.round(seconds(tick) * MusicGenerator.SAMPLE_RATE);
+    }
+
+    // truncated like every generator's (int) (SAMPLE_RATE * duration)
+    private int sampleLength(int event) {
+        return (int) (MusicGenerator.SAMPLE_RATE * seconds(length[event]));
+    }
+
+    public int sampleLength() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total = Math.max(total, sampleAt(start[i]) + sampleLength(i));
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("timeline too long for one array: " + total + " samples");
+        }
+        return (int) total;
+    }
+
+    public double[] render(MusicGenerator.WaveformGenerator generator) {
+        MusicGenerator.RenderMetrics.refresh();
+        double[] out = new double[sampleLength()];
+        MusicGenerator.WavetableOscillator oscillator = generator instanceof MusicGenerator.WavetableOscillator
+                ? (MusicGenerator.WavetableOscillator) generator
+                : null;
+        double[] scratch = new double[0];
+        boolean normalize = MusicGenerator.Waveforms.normalizesNotes();
+        MusicGenerator.Kernels kernels = MusicGenerator.Kernels.active();
+        for (int i = 0; i < size; i++) {
+            if (frequencies[i].length == 0) {
+                continue;
+            }
+            int offset = (int) sampleAt(start[i]);
+            int samples = sampleLength(i);
+            double[] waveform;
+            if (oscillator != null) {
+                if (scratch.length < samples) {
+                    scratch = new double[Math.max(samples, scratch.length * 2)];
+                }
+                int probe = MusicGenerator.RenderMetrics.begin();
+                try {
+                    oscillator.render(frequencies[i], samples, scratch, chord[i] && normalize);
+                } finally {
+                    MusicGenerator.RenderMetrics.end(probe, MusicGenerator.RenderMetrics.Stage.OSCILLATOR,
+                            (long) samples * frequencies[i].length);
+                }
+                waveform = scratch;
+            } else {
+                double seconds = seconds(length[i]);
+                waveform = chord[i]
+                        ? MusicGenerator.Chord.render(generator, frequencies[i], seconds)
+                        : MusicGenerator.Note.render(generator, frequencies[i][0], seconds);
+                samples = Math.min(samples, waveform.length);
+            }
+            int probe = MusicGenerator.RenderMetrics.begin();
+            try {
+                kernels.mix(out, offset, waveform, 0, samples);
+            } finally {
+                MusicGenerator.RenderMetrics.end(probe, MusicGenerator.RenderMetrics.Stage.TRACK_MIX, samples);
+            }
+        }
+        MusicGenerator.Waveforms.normalizeInPlace(out);
+        return out;
+    }
+}
@@ -0,0 +1,140 @@
+package musicgenerator;
+
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// Vector API versions of the scalar kernels. only loaded by name from Kernels.active(), so the
+// rest of the generator runs without jdk.incubator.vector on the module path. each loop does the
+// same arithmetic in the same order as ScalarKernels and finishes the tail scalar
+final class VectorKernels implements MusicGenerator.Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // d2s quarters the bit size, and 64 bits is the smallest shape, so pcm conversion stays
+    // scalar on hardware with vectors narrower than 256 bits
+    private static final VectorSpecies<Short> SHORT_SPECIES = SPECIES.vectorBitSize() >= 256
+            ? VectorSpecies.of(short.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 4))
+            : null;
+    private static final boolean SWAP_BYTES = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    // 0, 1, 2, ... added to a broadcast base to get the sample index of every lane
+    private static final DoubleVector IOTA = iota();
+
+    private static DoubleVector iota() {
+        double[] lanes = new double[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = i;
+        }
+        return DoubleVector.fromArray(SPECIES, lanes, 0);
+    }
+
+    @Override
+    public void mix(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, dst, dstOffset + i)
+                    .add(DoubleVector.fromArray(SPECIES, src, srcOffset + i))
+                    .intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] += src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void envelope(double[] src, double[] dst, int from, int to, int length, int attack, int decay, int release, double sustain) {
+        // attack: i / attack
+        int i = from;
+        int end = Math.max(i, Math.min(to, attack));
+        for (int bound = i + SPECIES.loopBound(end - i); i < bound; i += LANES) {
+            DoubleVector envelope = IOTA.add(i).div(attack);
+            DoubleVector.fromArray(SPECIES, src, i - from).mul(envelope).intoArray(dst, i - from);
+        }
+        for (; i < end; i++) {
+            dst[i - from] = src[i - from] * ((double) i / attack);
+        }
+
+        // decay: 1 - (1 - sustain) * (i - attack) / decay
+        double drop = 1.0 - sustain;
+        end = Math.max(i, Math.min(to, attack + decay));
+        for (int bound = i + SPECIES.loopBound(end - i); i < bound; i += LANES) {
+            DoubleVector envelope = IOTA.add(i - attack).mul(drop).div(decay).neg().add(1.0);
+            DoubleVector.fromArray(SPECIES, src, i - from).mul(envelope).intoArray(dst, i - from);
+        }
+        for (; i < end; i++) {
+            dst[i - from] = src[i - from] * (1.0 - (drop * (i - attack) / decay));
+        }
+
+        // sustain
+        int sustainEnd = length - release;
+        end = Math.max(i, Math.min(to, sustainEnd));
+        for (int bound = i + SPECIES.loopBound(end - i); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, src, i - from).mul(sustain).intoArray(dst, i - from);
+        }
+        for (; i < end; i++) {
+            dst[i - from] = src[i - from] * sustain;
+        }
+
+        // release: sustain * (1 - (i - (length - release)) / release)
+        i = Math.max(from, sustainEnd);
+        for (int bound = i + SPECIES.loopBound(to - i); i < bound; i += LANES) {
+            DoubleVector envelope = IOTA.add(i - sustainEnd).div(release).neg().add(1.0).mul(sustain);
+            DoubleVector.fromArray(SPECIES, src, i - from).mul(envelope).intoArray(dst, i - from);
+        }
+        for (; i < to; i++) {
+            dst[i - from] = src[i - from] * (sustain * (1.0 - (double) (i - sustainEnd) / release));
+        }
+    }
+
+    @Override
+    public double maxAbs(double[] waveform, int from, int to) {
+        int i = from;
+        DoubleVector max = DoubleVector.zero(SPECIES);
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            max = max.max(DoubleVector.fromArray(SPECIES, waveform, i).abs());
+        }
+        double result = max.reduceLanes(VectorOperators.MAX);
+        for (; i < to; i++) {
+            result = Math.max(result, Math.abs(waveform[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public void divide(double[] waveform, int from, int to, double divisor) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, waveform, i).div(divisor).intoArray(waveform, i);
+        }
+        for (; i < to; i++) {
+            waveform[i] = waveform[i] / divisor;
+        }
+    }
+
+    @Override
+    public void toPcm16(double[] waveform, int frames, byte[] audioData) {
+        int i = 0;
+        if (SHORT_SPECIES != null) {
+            for (int bound = SPECIES.loopBound(frames); i < bound; i += LANES) {
+                ShortVector samples = (ShortVector) DoubleVector.fromArray(SPECIES, waveform, i)
+                        .max(-1.0)
+                        .min(1.0)
+                        .mul(Short.MAX_VALUE)
+                        .convertShape(VectorOperators.D2S, SHORT_SPECIES, 0);
+                // lanes are laid out in native order, so swap on little-endian hardware
+                if (SWAP_BYTES) {
+                    samples = samples.lanewise(VectorOperators.REVERSE_BYTES);
+                }
+                samples.reinterpretAsBytes().intoArray(audioData, i * 2);
+            }
+        }
+        for (; i < frames; i++) {
+            short sample = (short) (Math.max(-1.0, Math.min(1.0, waveform[i])) * Short.MAX_VALUE);
+            audioData[i * 2] = (byte) (sample >> 8);
+            audioData[i * 2 + 1] = (byte) (sample & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.WavWriter;
+import musicgenerator.MusicGenerator.Waveforms;
+import musicgenerator.MusicGenerator.WaveformGenerator;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+class BatchRendererTest {
+    @TempDir
+    Path dir;
+
+    private final Song song = MusicGenerator.createMaryHadALittleLamb();
+
+    @Test
+    void writesEveryFrameOfTheMix() throws InterruptedException, IOException {
+        try (BatchRenderer batch = new BatchRenderer(dir, WavWriter.Encoding.PCM_16, 1, 4)) {
+            batch.submit("lamb", song, WavetableOscillator.SINE);
+        }
+        byte[] wav = Files.readAllBytes(dir.resolve("lamb.wav"));
+        int dataBytes = ByteBuffer.wrap(wav, 40, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        assertEquals(song.generateWaveformFloat(WavetableOscillator.SINE).length * 2, dataBytes);
+    }
+
+    @Test
+    void failedJobIsReportedAndLeavesNoFile() throws InterruptedException {
+        WaveformGenerator failing = (frequency, duration) -> {
+            throw new IllegalStateException("synth failed");
+        };
+        BatchRenderer batch = new BatchRenderer(dir, WavWriter.Encoding.PCM_16, 1, 4);
+        batch.submit("good", song, WavetableOscillator.SINE);
+        batch.submit("bad", song, failing);
+        batch.close();
+
+        assertTrue(Files.exists(dir.resolve("good.wav")));
+        assertFalse(Files.exists(dir.resolve("bad.wav")));
+        assertEquals(1, batch.metrics().completed());
+        assertEquals(1, batch.metrics().failed());
+        List<BatchRenderer.Failure> failures = batch.failures();
+        assertEquals(1, failures.size());
+        assertEquals("bad", failures.get(0).name());
+        assertEquals("synth failed", failures.get(0).cause().getMessage());
+    }
+
+    @Test
+    void workersAreVirtualThreads() throws InterruptedException {
+        AtomicBoolean virtual = new AtomicBoolean();
+        WaveformGenerator recording = (frequency, duration) -> {
+            virtual.set(Thread.currentThread().isVirtual());
+            return WavetableOscillator.SINE.generate(frequency, duration);
+        };
+        try (BatchRenderer batch = new BatchRenderer(dir, WavWriter.Encoding.PCM_16, 1, 4)) {
+            batch.submit("virtual", song, recording);
+        }
+        assertTrue(virtual.get());
+    }
+
+    // jobs render under the submitting thread's setting, not the worker's
+    @Test
+    void workersKeepTheSubmittersNormalizeSetting() throws InterruptedException {
+        AtomicBoolean normalized = new AtomicBoolean(true);
+        WaveformGenerator recording = (frequency, duration) -> {
+            normalized.set(Waveforms.normalizesNotes());
+            return WavetableOscillator.SINE.generate(frequency, duration);
+        };
+        try (BatchRenderer batch = new BatchRenderer(dir, WavWriter.Encoding.PCM_16, 1, 4)) {
+            Waveforms.withNormalizeNotes(false, () -> {
+                try {
+                    batch.submit("raw", song, recording);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            });
+        }
+        assertFalse(normalized.get());
+    }
+
+    @Test
+    void namesThatLeaveTheOutputDirectoryAreRejected() throws IOException {
+        Path out = Files.createDirectory(dir.resolve("out"));
+        try (BatchRenderer batch = new BatchRenderer(out, WavWriter.Encoding.PCM_16, 1, 4)) {
+            for (String name : new String[] { "../escape", "a/b", "a\\b", "", ".", "..",
+                    dir.resolve("abs").toString(), null }) {
+                assertThrows(IllegalArgumentException.class,
+                        () -> batch.submit(name, song, WavetableOscillator.SINE), String.valueOf(name));
+            }
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            assertEquals(List.of(dir, out), files.toList());
+        }
+    }
+
+    @Test
+    void submitAfterCloseIsRejected() {
+        BatchRenderer batch = new BatchRenderer(dir, WavWriter.Encoding.PCM_16, 2, 4);
+        batch.close();
+        batch.close(); // idempotent
+        assertThrows(IllegalStateException.class, () -> batch.submit("late", song, WavetableOscillator.SINE));
+    }
+
+    // every job accepted before close() is rendered, however the two interleave
+    @Test
+    void closeRacingSubmitsLosesNoJob() throws InterruptedException {
+        for (int run = 0; run < 20; run++) {
+            BatchRenderer batch = new BatchRenderer(dir, WavWriter.Encoding.PCM_16, 2, 1);
+            int[] accepted = { 0 };
+            Thread submitter = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        batch.submit("run" + i, song, WavetableOscillator.SINE);
+                        accepted[0]++;
+                    }
+                } catch (IllegalStateException | InterruptedException e) {
+                    // closed underneath us
+                }
+            });
+            submitter.start();
+            batch.close();
+            submitter.join();
+            assertEquals(accepted[0], batch.metrics().completed() + batch.metrics().failed(), "run " + run);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import musicgenerator.MusicGenerator.Bar;
+import musicgenerator.MusicGenerator.Chord;
+import musicgenerator.MusicGenerator.Note;
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.Track;
+import musicgenerator.MusicGenerator.Waveforms;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// fromSong -> write -> map must render exactly what Song.generateWaveform does while every
+// duration is a whole number of samples
+class CompactScoreTest {
+    @TempDir
+    Path dir;
+
+    private final Song song = TestSongs.build(3, 6);
+
+    // quarter notes and longer only, so tick onsets land on the same samples as Song's
+    private static Song wholeSampleSong() {
+        Song song = new Song("C", new int[] { 4, 4 });
+        for (int t = 0; t < 3; t++) {
+            Track track = new Track("C", 4 - t);
+            for (int b = 0; b < 4 - t; b++) {
+                Bar bar;
+                if (t % 2 == 0) {
+                    bar = new Bar("C", new int[] { 4, 4 });
+                    bar.addNoteOrChord(new Note("E", 4, "qtr"));
+                    bar.addNoteOrChord(new Note(null, 0, "qtr"));
+                    bar.addNoteOrChord(new Note("G", 5 - t, "h"));
+                } else {
+                    bar = TestSongs.chordBar(b);
+                }
+                track.addBar(bar);
+            }
+            song.addTrack(track);
+        }
+        return song;
+    }
+
+    private CompactScore writeAndMap(CompactScore score) throws IOException {
+        Path path = dir.resolve("song.mgsc");
+        score.write(path);
+        return CompactScore.map(path);
+    }
+
+    @Test
+    void mappedScoreMatchesHeapScore() throws IOException {
+        CompactScore heap = CompactScore.fromSong(song);
+        CompactScore mapped = writeAndMap(heap);
+        assertEquals(heap.size(), mapped.size());
+        assertEquals(3, mapped.voices());
+        for (int i = 0; i < heap.size(); i++) {
+            assertEquals(heap.pitch(i), mapped.pitch(i), "pitch " + i);
+            assertEquals(heap.start(i), mapped.start(i), "start " + i);
+            assertEquals(heap.duration(i), mapped.duration(i), "duration " + i);
+            assertEquals(heap.voice(i), mapped.voice(i), "voice " + i);
+            assertEquals(heap.chord(i), mapped.chord(i), "chord " + i);
+            assertEquals(heap.bar(i), mapped.bar(i), "bar " + i);
+        }
+    }
+
+    @Test
+    void mappedRenderMatchesGenerateWaveformWithWavetable() throws IOException {
+        Song song = wholeSampleSong();
+        CompactScore mapped = writeAndMap(CompactScore.fromSong(song));
+        assertArrayEquals(song.generateWaveform(WavetableOscillator.SINE), mapped.render(WavetableOscillator.SINE), 0.0);
+    }
+
+    @Test
+    void mappedRenderMatchesGenerateWaveformWithWaveforms() throws IOException {
+        Song song = wholeSampleSong();
+        CompactScore mapped = writeAndMap(CompactScore.fromSong(song));
+        assertArrayEquals(song.generateWaveform(Waveforms::generateSquareWave), mapped.render(Waveforms::generateSquareWave), 0.0);
+    }
+
+    @Test
+    void renderMatchesGenerateWaveformWithoutNoteNormalize() {
+        Song song = wholeSampleSong();
+        CompactScore score = CompactScore.fromSong(song);
+        assertArrayEquals(Waveforms.withNormalizeNotes(false, () -> song.generateWaveform(Waveforms::generateSineWave)),
+                Waveforms.withNormalizeNotes(false, () -> score.render(Waveforms::generateSineWave)), 0.0);
+    }
+
+    @Test
+    void eventsAreMixedAtTheirStartTick() {
+        int half = CompactScore.TICKS_PER_WHOLE / 2;
+        int quarter = CompactScore.TICKS_PER_WHOLE / 4;
+        int[] meter = { 4, 4 };
+        double[] atZero = new CompactScore.Builder("C", meter).add(57, 0, quarter, 0, -1, 0).build()
+                .render(WavetableOscillator.SINE);
+        CompactScore late = new CompactScore.Builder("C", meter).add(57, half, quarter, 0, -1, 0).build();
+        double[] delayed = late.render(WavetableOscillator.SINE);
+
+        int offset = (int) late.sampleAt(half);
+        assertEquals(MusicGenerator.SAMPLE_RATE / 2, offset);
+        assertEquals(offset + atZero.length, delayed.length);
+        assertArrayEquals(new double[offset], Arrays.copyOf(delayed, offset), 0.0);
+        assertArrayEquals(atZero, Arrays.copyOfRange(delayed, offset, delayed.length), 0.0);
+    }
+
+    @Test
+    void toSongRoundTrips() throws IOException {
+        Song copy = writeAndMap(CompactScore.fromSong(song)).toSong();
+        assertArrayEquals(song.generateWaveform(WavetableOscillator.SINE), copy.generateWaveform(WavetableOscillator.SINE), 0.0);
+    }
+
+    @Test
+    void fromSongRejectsFrequenciesOffTheTable() {
+        Song detuned = new Song("C", new int[] { 4, 4 });
+        Track track = new Track("C", 1);
+        Bar bar = new Bar("C", new int[] { 4, 4 });
+        bar.addNoteOrChord(new Chord(new double[] { 441.0 }, 0.25));
+        track.addBar(bar);
+        detuned.addTrack(track);
+        assertThrows(IllegalArgumentException.class, () -> CompactScore.fromSong(detuned));
+    }
+
+    @Test
+    void emptySong() throws IOException {
+        CompactScore mapped = writeAndMap(CompactScore.fromSong(new Song("C", new int[] { 4, 4 })));
+        assertEquals(0, mapped.size());
+        assertEquals(0, mapped.render(WavetableOscillator.SINE).length);
+    }
+
+    @Test
+    void rejectsBadFiles() throws IOException {
+        Path notScore = dir.resolve("not.mgsc");
+        Files.write(notScore, new byte[64]);
+        assertThrows(IOException.class, () -> CompactScore.map(notScore));
+
+        Path path = dir.resolve("song.mgsc");
+        CompactScore.fromSong(song).write(path);
+        byte[] bytes = Files.readAllBytes(path);
+        Path truncated = dir.resolve("truncated.mgsc");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> CompactScore.map(truncated));
+
+        for (int field : new int[] { 8, 12 }) { // event count, voice count
+            byte[] negative = bytes.clone();
+            ByteBuffer.wrap(negative).order(ByteOrder.LITTLE_ENDIAN).putInt(field, -1);
+            Path corrupt = dir.resolve("corrupt" + field + ".mgsc");
+            Files.write(corrupt, negative);
+            assertThrows(IOException.class, () -> CompactScore.map(corrupt));
+        }
+    }
+}
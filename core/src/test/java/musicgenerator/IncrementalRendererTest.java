@@ -0,0 +1,143 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import musicgenerator.MusicGenerator.Bar;
+import musicgenerator.MusicGenerator.IncrementalRenderer;
+import musicgenerator.MusicGenerator.Note;
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.Track;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// after every edit, update() must leave the render equal to a full Song.generateWaveform
+class IncrementalRendererTest {
+    private final Song song = new Song("C", new int[] { 4, 4 });
+    private final Track melody = new Track("C", 8);
+    private final Track chords = new Track("C", 7);
+    private final Track counter = new Track("C", 6);
+    private final List<Bar> melodyBars = new ArrayList<>(); // melody's bars, mirrored
+    private final IncrementalRenderer renderer;
+
+    IncrementalRendererTest() {
+        for (int b = 0; b < 8; b++) {
+            melodyBars.add(TestSongs.melodyBar(b));
+            melody.addBar(melodyBars.get(b));
+        }
+        for (int b = 0; b < 7; b++) {
+            chords.addBar(TestSongs.chordBar(b));
+        }
+        for (int b = 0; b < 6; b++) {
+            counter.addBar(TestSongs.melodyBar(b + 3));
+        }
+        song.addTrack(melody);
+        song.addTrack(chords);
+        song.addTrack(counter);
+        renderer = new IncrementalRenderer(song, WavetableOscillator.SINE);
+    }
+
+    private void assertMatchesFullRender() {
+        double[] expected = song.generateWaveform(WavetableOscillator.SINE);
+        assertArrayEquals(expected, renderer.generateWaveform(), 0.0);
+        assertEquals(expected.length, renderer.length());
+        double[] copy = new double[expected.length];
+        renderer.copyTo(0, expected.length, copy, 0);
+        assertArrayEquals(expected, copy, 0.0);
+    }
+
+    // sample offset of bar b in the melody track
+    private int barStart(int b) {
+        int start = 0;
+        for (int i = 0; i < b; i++) {
+            start += melodyBars.get(i).generateWaveform(WavetableOscillator.SINE).length;
+        }
+        return start;
+    }
+
+    private int melodyLength() {
+        return barStart(melodyBars.size());
+    }
+
+    @Test
+    void initialRenderMatches() {
+        assertMatchesFullRender();
+        assertFalse(renderer.update());
+    }
+
+    @Test
+    void sameLengthEditDirtiesOnlyItsBar() {
+        Bar bar = melodyBars.get(3);
+        bar.setNoteOrChord(0, new Note("A", 5, "qtr"));
+        assertTrue(renderer.update());
+        assertEquals(barStart(3), renderer.dirtyFrom());
+        assertEquals(barStart(4), renderer.dirtyTo());
+        assertMatchesFullRender();
+    }
+
+    @Test
+    void lengthChangeDirtiesRestOfTrack() {
+        int oldLength = melodyLength();
+        melodyBars.get(2).setNoteOrChord(0, new Note("A", 5, "h")); // a quarter becomes a half
+        assertTrue(renderer.update());
+        assertEquals(barStart(2), renderer.dirtyFrom());
+        assertEquals(Math.max(oldLength, melodyLength()), renderer.dirtyTo());
+        assertMatchesFullRender();
+    }
+
+    @Test
+    void removedNoteShortensSong() {
+        melodyBars.get(7).removeNoteOrChord(3);
+        assertTrue(renderer.update());
+        assertEquals(barStart(7), renderer.dirtyFrom());
+        assertMatchesFullRender();
+    }
+
+    @Test
+    void addedReplacedAndRemovedBars() {
+        melodyBars.add(TestSongs.melodyBar(20));
+        melody.addBar(melodyBars.get(8));
+        assertTrue(renderer.update());
+        assertMatchesFullRender();
+
+        Bar replacement = TestSongs.chordBar(2);
+        chords.setBar(3, replacement);
+        assertTrue(renderer.update());
+        assertMatchesFullRender();
+
+        melodyBars.remove(1);
+        melody.removeBar(1);
+        assertTrue(renderer.update());
+        assertEquals(barStart(1), renderer.dirtyFrom());
+        assertMatchesFullRender();
+    }
+
+    @Test
+    void addedTrack() {
+        Track extra = new Track("C", 12);
+        for (int b = 0; b < 12; b++) {
+            extra.addBar(TestSongs.chordBar(b + 1));
+        }
+        song.addTrack(extra);
+        assertTrue(renderer.update());
+        assertMatchesFullRender();
+    }
+
+    @Test
+    void severalEditsInOneUpdate() {
+        melodyBars.get(0).setNoteOrChord(1, new Note("F", 4, "eigth"));
+        chords.setBar(4, TestSongs.chordBar(2));
+        counter.removeBar(5);
+        assertTrue(renderer.update());
+        assertMatchesFullRender();
+        assertFalse(renderer.update());
+        assertEquals(0, renderer.dirtyFrom());
+        assertEquals(0, renderer.dirtyTo());
+    }
+}
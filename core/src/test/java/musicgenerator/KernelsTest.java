@@ -0,0 +1,130 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import musicgenerator.MusicGenerator.Kernels;
+import musicgenerator.MusicGenerator.ScalarKernels;
+
+// the vector kernels against the scalar reference, on lengths that leave a tail after the last
+// full vector
+class KernelsTest {
+    private static final double TOLERANCE = 1e-12;
+    private static final int[] LENGTHS = { 0, 1, 3, 7, 8, 17, 1000, 4099, 44100 };
+
+    private final Kernels scalar = new ScalarKernels();
+    private Kernels vector;
+    private Random random;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "jdk.incubator.vector not available");
+        vector = new VectorKernels();
+        random = new Random(42);
+    }
+
+    private double[] randomWaveform(int length, double amplitude) {
+        double[] waveform = new double[length];
+        for (int i = 0; i < length; i++) {
+            waveform[i] = (random.nextDouble() * 2 - 1) * amplitude;
+        }
+        return waveform;
+    }
+
+    @Test
+    void mixMatchesScalar() {
+        for (int length : LENGTHS) {
+            double[] src = randomWaveform(length, 1.0);
+            double[] expected = randomWaveform(length, 1.0);
+            double[] actual = expected.clone();
+            // unaligned, and offset differently on each side
+            int n = Math.max(0, length - 3);
+            scalar.mix(expected, Math.min(length, 1), src, Math.min(length, 2), n);
+            vector.mix(actual, Math.min(length, 1), src, Math.min(length, 2), n);
+            assertArrayEquals(expected, actual, TOLERANCE, "length " + length);
+        }
+    }
+
+    @Test
+    void envelopeMatchesScalar() {
+        for (int length : LENGTHS) {
+            // arrays longer than length, the samples past it must be left alone
+            double[] src = randomWaveform(length + 4, 1.0);
+            int attack = (int) (0.1 * length);
+            int decay = Math.min(length / 4, 13);
+            int release = length / 4;
+            double[] expected = new double[length + 4];
+            double[] actual = new double[length + 4];
+            scalar.envelope(src, expected, 0, length, length, attack, decay, release, 0.7);
+            vector.envelope(src, actual, 0, length, length, attack, decay, release, 0.7);
+            assertArrayEquals(expected, actual, TOLERANCE, "length " + length);
+        }
+    }
+
+    // enveloping a note slice by slice gives the same samples as the whole note at once
+    @Test
+    void envelopeSlicesMatchWholeNote() {
+        int length = 44100;
+        double[] src = randomWaveform(length, 1.0);
+        double[] whole = new double[length];
+        scalar.envelope(src, whole, 0, length, length, 882, 2205, 2205, 0.7);
+        for (Kernels kernels : new Kernels[] { scalar, vector }) {
+            for (int from = 0; from < length; from += 1001) {
+                int to = Math.min(length, from + 1001);
+                double[] slice = new double[to - from];
+                kernels.envelope(Arrays.copyOfRange(src, from, to), slice, from, to, length, 882, 2205, 2205, 0.7);
+                assertArrayEquals(Arrays.copyOfRange(whole, from, to), slice, 0.0, "slice at " + from);
+            }
+        }
+    }
+
+    @Test
+    void maxAbsAndDivideMatchScalar() {
+        for (int length : LENGTHS) {
+            double[] waveform = randomWaveform(length, 3.0);
+            double max = scalar.maxAbs(waveform, 0, length);
+            assertEquals(max, vector.maxAbs(waveform, 0, length), TOLERANCE, "length " + length);
+
+            double[] expected = waveform.clone();
+            double[] actual = waveform.clone();
+            scalar.divide(expected, 0, length, 2.5);
+            vector.divide(actual, 0, length, 2.5);
+            assertArrayEquals(expected, actual, TOLERANCE, "length " + length);
+        }
+    }
+
+    @Test
+    void maxAbsOfRangeIgnoresOutsideSamples() {
+        double[] waveform = randomWaveform(100, 0.5);
+        waveform[2] = -10;
+        waveform[97] = 10;
+        assertEquals(scalar.maxAbs(waveform, 5, 90), vector.maxAbs(waveform, 5, 90));
+        assertTrue(vector.maxAbs(waveform, 5, 90) <= 0.5);
+    }
+
+    // includes out-of-range samples so clipping is exercised
+    @Test
+    void toPcm16MatchesScalar() {
+        for (int length : LENGTHS) {
+            double[] waveform = randomWaveform(length, 1.5);
+            byte[] expected = new byte[length * 2];
+            byte[] actual = new byte[length * 2];
+            scalar.toPcm16(waveform, length, expected);
+            vector.toPcm16(waveform, length, actual);
+            for (int i = 0; i < length; i++) {
+                int e = (short) ((expected[i * 2] << 8) | (expected[i * 2 + 1] & 0xFF));
+                int a = (short) ((actual[i * 2] << 8) | (actual[i * 2 + 1] & 0xFF));
+                assertTrue(Math.abs(e - a) <= 1, "sample " + i + " of " + length + ": " + e + " vs " + a);
+            }
+        }
+    }
+}
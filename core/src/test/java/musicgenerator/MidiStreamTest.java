@@ -0,0 +1,200 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// type 0 files at 480 ppq and 120 bpm, so a quarter note is 22050 samples
+class MidiStreamTest {
+    private static final int QUARTER = 22050;
+    private static final int ATTACK = (int) (0.02 * 44100);
+    private static final int DECAY = (int) (0.05 * 44100);
+    private static final int RELEASE = (int) (0.05 * 44100);
+
+    @TempDir
+    Path dir;
+
+    private final ByteArrayOutputStream events = new ByteArrayOutputStream();
+
+    private void event(int delta, int... bytes) {
+        if (delta >= 128) {
+            events.write(0x80 | (delta >> 7));
+        }
+        events.write(delta & 0x7F);
+        for (int b : bytes) {
+            events.write(b);
+        }
+    }
+
+    private Path file() throws IOException {
+        event(0, 0xFF, 0x2F, 0);
+        byte[] data = events.toByteArray();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0x01, (byte) 0xE0 });
+        out.write(new byte[] { 'M', 'T', 'r', 'k', 0, 0, (byte) (data.length >> 8), (byte) data.length });
+        out.write(data);
+        Path path = dir.resolve("test.mid");
+        Files.write(path, out.toByteArray());
+        return path;
+    }
+
+    // returns the frame count, checking the voice count after every block against maxVoices
+    private long render(Path path, double maxNoteSeconds, int maxVoices) throws IOException {
+        return render(path, maxNoteSeconds, maxVoices, false);
+    }
+
+    private long render(Path path, double maxNoteSeconds, int maxVoices, boolean untilSilent) throws IOException {
+        try (MidiReader reader = new MidiReader(path)) {
+            MidiStream stream = new MidiStream(reader, WavetableOscillator.SINE, 1000, 0.25, maxNoteSeconds);
+            long frames = 0;
+            long lastSound = 0;
+            int n;
+            while ((n = stream.read()) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (stream.buffer()[i] != 0) {
+                        lastSound = frames + i + 1;
+                    }
+                }
+                frames += n;
+                assertTrue(stream.voices() <= maxVoices, "voices " + stream.voices());
+            }
+            return untilSilent ? lastSound : frames;
+        }
+    }
+
+    @Test
+    void releaseStartsAtNoteOff() throws IOException {
+        event(0, 0x90, 60, 100);
+        event(480, 0x80, 60, 0);
+        assertEquals(QUARTER + RELEASE, render(file(), 60, 1));
+    }
+
+    @Test
+    void stuckNoteIsReleasedAfterMaxNoteLength() throws IOException {
+        event(0, 0x90, 60, 100); // never released
+        event(480 * 8, 0xFF, 0x01, 0); // a text event four seconds in
+        long sounding = render(file(), 1.0, 1, true);
+        assertTrue(sounding > 44100 && sounding <= 44100 + RELEASE, "sounds until " + sounding);
+    }
+
+    // a held pedal under a run of short notes sounds with them, it doesn't hold them back
+    @Test
+    void heldNoteDoesNotAccumulateVoices() throws IOException {
+        event(0, 0x91, 48, 100);
+        for (int i = 0; i < 200; i++) {
+            event(0, 0x90, 60 + i % 12, 100);
+            event(240, 0x80, 60 + i % 12, 0);
+        }
+        event(0, 0x81, 48, 0);
+        assertEquals(200L * QUARTER / 2 + RELEASE, render(file(), 60, 3));
+    }
+
+    // a note held past its first half second and one released during its attack, rendered
+    // across block boundaries, against the oscillator times the envelope computed sample by sample
+    @Test
+    void voicesMatchOscillatorTimesEnvelope() throws IOException {
+        event(0, 0x90, 60, 100);
+        event(0, 0x91, 64, 80);
+        event(16, 0x81, 64, 0);
+        event(944, 0x80, 60, 0);
+        double[] expected = new double[(int) tickSample(960) + RELEASE];
+        addVoice(expected, 261.63, 0.25 * 100 / 127, tickSample(960));
+        addVoice(expected, 329.63, 0.25 * 80 / 127, tickSample(16));
+
+        try (MidiReader reader = new MidiReader(file())) {
+            MidiStream stream = new MidiStream(reader, WavetableOscillator.SINE, 1000, 0.25);
+            double[] actual = new double[expected.length];
+            int frames = 0;
+            int n;
+            while ((n = stream.read()) > 0) {
+                System.arraycopy(stream.buffer(), 0, actual, frames, n);
+                frames += n;
+            }
+            assertEquals(expected.length, frames);
+            assertArrayEquals(expected, actual, 1e-12);
+        }
+    }
+
+    private static long tickSample(int tick) {
+        return (long) (tick * (500_000 / 1e6) / 480 * 44100);
+    }
+
+    // a voice from sample 0, released at releaseSample
+    private static void addVoice(double[] out, double frequency, double level, long releaseSample) {
+        int length = (int) releaseSample + RELEASE;
+        double[] raw = new double[length];
+        WavetableOscillator.SINE.oscillate(frequency, 0, raw, length);
+        double releaseLevel = heldLevel((int) releaseSample);
+        for (int i = 0; i < length; i++) {
+            double envelope = i < releaseSample ? heldLevel(i) : releaseLevel * (1.0 - (double) (i - releaseSample) / RELEASE);
+            out[i] += raw[i] * level * envelope;
+        }
+    }
+
+    private static double heldLevel(int age) {
+        if (age < ATTACK) {
+            return (double) age / ATTACK;
+        }
+        if (age < ATTACK + DECAY) {
+            return 1.0 - 0.3 * (age - ATTACK) / DECAY;
+        }
+        return 0.7;
+    }
+
+    @Test
+    void runningStatusSurvivesMetaEvents() throws IOException {
+        event(0, 0x90, 60, 100);
+        event(480, 0xFF, 0x01, 0);
+        event(0, 60, 0); // note-on with velocity 0 under running status, i.e. the note-off
+        assertEquals(QUARTER + RELEASE, render(file(), 60, 1));
+    }
+
+    // a set-tempo event that isn't 3 bytes long is skipped, not applied with a stale value
+    @Test
+    void malformedTempoIsIgnored() throws IOException {
+        event(0, 0xFF, 0x51, 2, 0x07, 0xA1);
+        event(0, 0x90, 60, 100);
+        event(480, 0x80, 60, 0);
+        assertEquals(QUARTER + RELEASE, render(file(), 60, 1));
+    }
+
+    @Test
+    void tempoChangeIsApplied() throws IOException {
+        event(0, 0xFF, 0x51, 3, 0x0F, 0x42, 0x40); // 60 bpm
+        event(0, 0x90, 60, 100);
+        event(480, 0x80, 60, 0);
+        assertEquals(2 * QUARTER + RELEASE, render(file(), 60, 1));
+    }
+
+    // 0xF1 and 0xF3 take one data byte, 0xF2 two and 0xF6 none; none of them is a note
+    @Test
+    void systemCommonMessagesAreSkipped() throws IOException {
+        event(0, 0x90, 60, 100);
+        event(0, 0xF1, 0x12);
+        event(0, 0xF2, 0x34, 0x56);
+        event(0, 0xF3, 0x07);
+        event(0, 0xF6);
+        event(480, 0x80, 60, 0);
+        assertEquals(QUARTER + RELEASE, render(file(), 60, 1));
+    }
+
+    @Test
+    void systemCommonCancelsRunningStatus() throws IOException {
+        event(0, 0x90, 60, 100);
+        event(0, 0xF6);
+        event(480, 60, 0);
+        Path path = file();
+        assertThrows(IOException.class, () -> render(path, 60, 1));
+    }
+}
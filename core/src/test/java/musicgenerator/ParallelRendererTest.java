@@ -0,0 +1,48 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// small minTaskSamples so every track splits into several bar groups and the mix into many chunks
+class ParallelRendererTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final MusicGenerator.Song song = TestSongs.build(3, 12);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void matchesSequentialWithWavetable() {
+        MusicGenerator.ParallelRenderer renderer = new MusicGenerator.ParallelRenderer(pool, 5000);
+        assertArrayEquals(song.generateWaveform(MusicGenerator.WavetableOscillator.SINE), renderer.render(song, MusicGenerator.WavetableOscillator.SINE), 0.0);
+    }
+
+    @Test
+    void matchesSequentialWithWaveforms() {
+        MusicGenerator.ParallelRenderer renderer = new MusicGenerator.ParallelRenderer(pool, 7919);
+        assertArrayEquals(song.generateWaveform(MusicGenerator.Waveforms::generateSawtoothWave),
+                renderer.render(song, MusicGenerator.Waveforms::generateSawtoothWave), 0.0);
+    }
+
+    // the workers render under the calling thread's setting
+    @Test
+    void matchesSequentialWithoutNoteNormalize() {
+        MusicGenerator.ParallelRenderer renderer = new MusicGenerator.ParallelRenderer(pool, 5000);
+        MusicGenerator.WaveformGenerator generator = MusicGenerator.Waveforms::generateSineWave;
+        assertArrayEquals(MusicGenerator.Waveforms.withNormalizeNotes(false, () -> song.generateWaveform(generator)),
+                MusicGenerator.Waveforms.withNormalizeNotes(false, () -> renderer.render(song, generator)), 0.0);
+    }
+
+    @Test
+    void rendersEmptySong() {
+        MusicGenerator.Song empty = new MusicGenerator.Song("C", new int[] { 4, 4 });
+        assertArrayEquals(empty.generateWaveform(MusicGenerator.WavetableOscillator.SINE),
+                new MusicGenerator.ParallelRenderer(pool, 5000).render(empty, MusicGenerator.WavetableOscillator.SINE), 0.0);
+    }
+}
@@ -0,0 +1,105 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.SongStream;
+import musicgenerator.MusicGenerator.Waveforms;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+class PeakLimiterTest {
+    private static final double CEILING = 0.989;
+
+    private final Random random = new Random(42);
+
+    private double[] noise(int length, double amplitude) {
+        double[] waveform = new double[length];
+        for (int i = 0; i < length; i++) {
+            waveform[i] = (random.nextDouble() * 2 - 1) * amplitude;
+        }
+        return waveform;
+    }
+
+    private static double peak(double[] waveform) {
+        double max = 0;
+        for (double sample : waveform) {
+            max = Math.max(max, Math.abs(sample));
+        }
+        return max;
+    }
+
+    @Test
+    void loudInputStaysUnderCeiling() {
+        double[] waveform = noise(100_000, 4.0);
+        // a few isolated spikes well past the rest
+        waveform[5000] = 40;
+        waveform[5001] = -40;
+        waveform[99_999] = 25;
+        PeakLimiter.standard().apply(waveform);
+        assertTrue(peak(waveform) <= CEILING, "peak " + peak(waveform));
+    }
+
+    @Test
+    void loudnessTargetStaysUnderCeiling() {
+        double[] waveform = noise(100_000, 0.01);
+        for (int i = 50_000; i < 60_000; i++) {
+            waveform[i] *= 200;
+        }
+        PeakLimiter.standard().targetLoudness(-12, 0.4).apply(waveform);
+        assertTrue(peak(waveform) <= CEILING, "peak " + peak(waveform));
+    }
+
+    @Test
+    void subCeilingInputPassesThroughUnchanged() {
+        double[] input = noise(50_000, 0.9);
+        double[] applied = input.clone();
+        PeakLimiter.standard().apply(applied);
+        assertArrayEquals(input, applied, 0.0);
+    }
+
+    // the streaming form is the same samples, latency() later
+    @Test
+    void subCeilingInputIsDelayedByLatency() {
+        double[] input = noise(50_000, 0.9);
+        PeakLimiter limiter = PeakLimiter.standard();
+        double[] processed = input.clone();
+        for (int from = 0; from < processed.length; from += 777) {
+            limiter.process(processed, from, Math.min(777, processed.length - from));
+        }
+        int latency = limiter.latency();
+        for (int i = 0; i < latency; i++) {
+            assertEquals(0.0, processed[i]);
+        }
+        for (int i = latency; i < input.length; i++) {
+            assertEquals(input[i - latency], processed[i], 0.0, "sample " + i);
+        }
+    }
+
+    @Test
+    void limitedSongStreamStaysUnderCeilingAndKeepsLength() {
+        Song song = MusicGenerator.createMaryHadALittleLamb();
+        SongStream stream = song.stream(WavetableOscillator.SINE, 1000, PeakLimiter.standard(), PeakLimiter.standard());
+        double[] limited = SongStreamTest.drain(stream);
+        for (int i = 0; i < limited.length; i++) {
+            assertTrue(Math.abs(limited[i]) <= CEILING, "sample " + i);
+        }
+        assertEquals(song.generateWaveform(WavetableOscillator.SINE).length, limited.length);
+    }
+
+    // the limiter sets the level, so notes are rendered unnormalized whatever the caller's setting
+    @Test
+    void limitedSongStreamIgnoresNormalizeSetting() {
+        Song song = MusicGenerator.createMaryHadALittleLamb();
+        double[] normalized = SongStreamTest.drain(Waveforms.withNormalizeNotes(true,
+                () -> song.stream(Waveforms::generateSineWave, 1000, PeakLimiter.standard(), null)));
+        double[] raw = SongStreamTest.drain(Waveforms.withNormalizeNotes(false,
+                () -> song.stream(Waveforms::generateSineWave, 1000, PeakLimiter.standard(), null)));
+        assertArrayEquals(raw, normalized, 0.0);
+    }
+}
@@ -0,0 +1,43 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+// a sink that never blocks keeps the player ahead of the renderer, so the end of the stream is
+// reached while the last blocks are still being offered
+class RealtimePlayerTest {
+    private final MusicGenerator.Song song = MusicGenerator.createMaryHadALittleLamb();
+    private final int frames = song.generateWaveform(MusicGenerator.WavetableOscillator.SINE).length;
+
+    @Test
+    void playsEveryFrameToTheEnd() throws InterruptedException {
+        for (int run = 0; run < 20; run++) {
+            RealtimePlayer.MemorySink sink = new RealtimePlayer.MemorySink();
+            RealtimePlayer player = new RealtimePlayer(song.stream(MusicGenerator.WavetableOscillator.SINE, 1024), sink, 256, 1024);
+            player.play();
+            assertEquals(frames, player.framesPlayed(), "run " + run);
+            assertEquals(frames * 2, sink.toByteArray().length, "run " + run);
+        }
+    }
+
+    // pcm of the stream, in order
+    @Test
+    void playsTheStreamSamples() throws InterruptedException {
+        double[] waveform = SongStreamTest.drain(song.stream(MusicGenerator.WavetableOscillator.SINE, 1024));
+        byte[] expected = new byte[waveform.length * 2];
+        MusicGenerator.toPcm16(waveform, waveform.length, expected);
+
+        RealtimePlayer.MemorySink sink = new RealtimePlayer.MemorySink();
+        new RealtimePlayer(song.stream(MusicGenerator.WavetableOscillator.SINE, 1024), sink, 64, 256).play();
+        assertArrayEquals(expected, sink.toByteArray());
+    }
+
+    @Test
+    void rejectsPeriodLargerThanBuffer() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new RealtimePlayer(song.stream(MusicGenerator.WavetableOscillator.SINE, 1024), new RealtimePlayer.NullSink(), 512, 256));
+    }
+}
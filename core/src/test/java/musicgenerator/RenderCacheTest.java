@@ -0,0 +1,93 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+// a private cache per test; each entry of 100 samples is 16 + 800 bytes
+class RenderCacheTest {
+    private static final long ENTRY_BYTES = 16 + 8 * 100;
+
+    private int renders;
+
+    private double[] get(MusicGenerator.RenderCache cache, MusicGenerator.WaveformGenerator generator, double frequency, double duration) {
+        return get(cache, generator, frequency, duration, true);
+    }
+
+    private double[] get(MusicGenerator.RenderCache cache, MusicGenerator.WaveformGenerator generator, double frequency, double duration,
+            boolean normalized) {
+        return cache.get(generator, new double[] { frequency }, duration, normalized, () -> {
+            renders++;
+            return new double[100];
+        });
+    }
+
+    @Test
+    void missThenHit() {
+        MusicGenerator.RenderCache cache = new MusicGenerator.RenderCache(1 << 20);
+        double[] first = get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.25);
+        double[] second = get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.25);
+        assertSame(first, second);
+        assertEquals(1, renders);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.size());
+        assertEquals(ENTRY_BYTES, cache.sizeBytes());
+    }
+
+    @Test
+    void keysSeparateEveryField() {
+        MusicGenerator.RenderCache cache = new MusicGenerator.RenderCache(1 << 20);
+        double[] base = get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.25);
+        assertNotSame(base, get(cache, MusicGenerator.WavetableOscillator.SQUARE, 440, 0.25));
+        assertNotSame(base, get(cache, MusicGenerator.WavetableOscillator.SINE, 440.01, 0.25));
+        assertNotSame(base, get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.5));
+        // a render made without note normalize has another gain
+        assertNotSame(base, get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.25, false));
+        assertEquals(5, renders);
+        assertEquals(0, cache.hits());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        MusicGenerator.RenderCache cache = new MusicGenerator.RenderCache(2 * ENTRY_BYTES);
+        double[] a = get(cache, MusicGenerator.WavetableOscillator.SINE, 100, 0.25);
+        get(cache, MusicGenerator.WavetableOscillator.SINE, 200, 0.25);
+        get(cache, MusicGenerator.WavetableOscillator.SINE, 100, 0.25); // a is now the most recent
+        get(cache, MusicGenerator.WavetableOscillator.SINE, 300, 0.25); // evicts 200
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.size());
+        assertEquals(2 * ENTRY_BYTES, cache.sizeBytes());
+
+        assertSame(a, get(cache, MusicGenerator.WavetableOscillator.SINE, 100, 0.25));
+        int before = renders;
+        get(cache, MusicGenerator.WavetableOscillator.SINE, 200, 0.25);
+        assertEquals(before + 1, renders);
+    }
+
+    @Test
+    void oversizedEntryIsNotStored() {
+        MusicGenerator.RenderCache cache = new MusicGenerator.RenderCache(ENTRY_BYTES - 1);
+        get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.25);
+        get(cache, MusicGenerator.WavetableOscillator.SINE, 440, 0.25);
+        assertEquals(2, renders);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeBytes());
+    }
+
+    @Test
+    void shrinkingBudgetTrims() {
+        MusicGenerator.RenderCache cache = new MusicGenerator.RenderCache(1 << 20);
+        for (int i = 0; i < 5; i++) {
+            get(cache, MusicGenerator.WavetableOscillator.SINE, 100 + i, 0.25);
+        }
+        cache.setMaxBytes(2 * ENTRY_BYTES);
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.evictions());
+        cache.setMaxBytes(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeBytes());
+    }
+}
@@ -0,0 +1,110 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import musicgenerator.MusicGenerator.Bar;
+import musicgenerator.MusicGenerator.Chord;
+import musicgenerator.MusicGenerator.Note;
+import musicgenerator.MusicGenerator.RenderCache;
+import musicgenerator.MusicGenerator.RenderMetrics;
+import musicgenerator.MusicGenerator.RenderMetrics.Stage;
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.Track;
+import musicgenerator.MusicGenerator.WaveformGenerator;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// a stage that throws still ends, so the probes after it aren't nested under it
+class RenderMetricsTest {
+    @BeforeEach
+    void setUp() {
+        RenderMetrics.reset();
+        RenderMetrics.setEnabled(true);
+        RenderCache.shared().clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        RenderMetrics.setEnabled(Boolean.getBoolean("musicgenerator.metrics"));
+        RenderMetrics.reset();
+    }
+
+    @Test
+    void failingStagesEnd() {
+        WaveformGenerator failing = (frequency, duration) -> {
+            throw new IllegalStateException("generator failed");
+        };
+        Bar bar = new Bar("C", new int[] { 4, 4 });
+        bar.addNoteOrChord(new Chord("C", "Major", "w", 3));
+        assertThrows(IllegalStateException.class, () -> bar.generateWaveform(failing));
+
+        // the chord sum and the note inside it are both recorded and popped
+        assertEquals(1, RenderMetrics.calls(Stage.CHORD_SUM));
+        assertEquals(1, RenderMetrics.calls(Stage.OSCILLATOR));
+        int probe = RenderMetrics.begin();
+        assertEquals(0, probe);
+        RenderMetrics.end(probe, Stage.TRACK_MIX, 0);
+    }
+
+    @Test
+    void stagesAreTimedPerTrackAndBar() {
+        song().generateWaveform(WavetableOscillator.SINE);
+
+        // the second C4 comes from the render cache, the chord is one wavetable bank call
+        assertEquals(3, RenderMetrics.calls(Stage.OSCILLATOR));
+        assertEquals(5 * MusicGenerator.SAMPLE_RATE, RenderMetrics.samples(Stage.OSCILLATOR));
+        assertEquals(0, RenderMetrics.calls(Stage.CHORD_SUM));
+        assertEquals(1, RenderMetrics.calls(Stage.TRACK_MIX));
+        // once per bar, then once per track
+        assertEquals(4 + 2, RenderMetrics.calls(Stage.CONCATENATE));
+        assertEquals(2 * 2 * MusicGenerator.SAMPLE_RATE, RenderMetrics.samples(Stage.TRACK_MIX));
+        for (Stage stage : new Stage[] { Stage.OSCILLATOR, Stage.ENVELOPE, Stage.TRACK_MIX }) {
+            assertTrue(RenderMetrics.nanos(stage) > 0, stage.name());
+            assertTrue(RenderMetrics.samples(stage) > 0, stage.name());
+        }
+    }
+
+    @Test
+    void summaryHasTotalTrackAndBarTables() {
+        song().generateWaveform(WavetableOscillator.SINE);
+
+        String summary = RenderMetrics.summary();
+        assertTrue(summary.startsWith("total\n"), summary);
+        assertTrue(summary.contains("\nsong\n"), summary);
+        assertTrue(summary.contains("\ntrack 0\n"), summary);
+        assertTrue(summary.contains("\ntrack 1 bar 1\n"), summary);
+        assertTrue(summary.contains("OSCILLATOR"), summary);
+        assertTrue(summary.contains("TRACK_MIX"), summary);
+    }
+
+    @Test
+    void disabledRecordsNothing() {
+        RenderMetrics.setEnabled(false);
+        song().generateWaveform(WavetableOscillator.SINE);
+
+        assertEquals(0, RenderMetrics.calls(Stage.OSCILLATOR));
+        assertFalse(RenderMetrics.summary().contains("OSCILLATOR"));
+    }
+
+    // bars of 4/4 at 120 bpm are one second each
+    private static Song song() {
+        Song song = new Song("C", new int[] { 4, 4 });
+        for (int t = 0; t < 2; t++) {
+            Track track = new Track("C", 2);
+            Bar first = new Bar("C", new int[] { 4, 4 });
+            first.addNoteOrChord(new Note("C", 4, "w"));
+            Bar second = new Bar("C", new int[] { 4, 4 });
+            second.addNoteOrChord(t == 0 ? new Note("E", 4, "w") : new Chord("C", "Major", "w", 3));
+            track.addBar(first);
+            track.addBar(second);
+            song.addTrack(track);
+        }
+        return song;
+    }
+}
@@ -0,0 +1,148 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// Song.renderTo against generateWaveform, into buffers that already hold other samples
+class SampleBufferTest {
+    private static final int EXTRA = 1000;
+
+    @TempDir
+    Path dir;
+
+    private final Song song = MusicGenerator.createMaryHadALittleLamb();
+
+    private static double[] signal(int length) {
+        double[] src = new double[length];
+        for (int i = 0; i < length; i++) {
+            src[i] = Math.sin(i * 0.01);
+        }
+        return src;
+    }
+
+    private void checkReused(SampleBuffer buffer) {
+        int length = (int) song.sampleCount();
+        double[] garbage = new double[length + EXTRA];
+        Arrays.fill(garbage, 0.5);
+        buffer.write(0, garbage, 0, garbage.length);
+
+        song.renderTo(buffer, WavetableOscillator.SINE);
+        double[] actual = new double[length + EXTRA];
+        buffer.read(0, actual, 0, actual.length);
+
+        assertArrayEquals(song.generateWaveform(WavetableOscillator.SINE), Arrays.copyOf(actual, length), 0.0);
+        // samples past the song are left alone
+        assertEquals(0.5, actual[length + EXTRA - 1]);
+    }
+
+    @Test
+    void renderToClearsReusedHeapBuffer() {
+        try (SampleBuffer buffer = SampleBuffer.heap(song.sampleCount() + EXTRA)) {
+            checkReused(buffer);
+        }
+    }
+
+    @Test
+    void renderToClearsReusedOffHeapBuffer() {
+        try (SampleBuffer buffer = SampleBuffer.offHeap(song.sampleCount() + EXTRA)) {
+            checkReused(buffer);
+        }
+    }
+
+    @Test
+    void renderToClearsReusedMappedBuffer() {
+        try (SampleBuffer buffer = SampleBuffer.mapped(dir.resolve("render.raw"), song.sampleCount() + EXTRA)) {
+            checkReused(buffer);
+        }
+    }
+
+    // more than one scratch block, so adds cross the block boundary
+    @Test
+    void offHeapMatchesHeap() {
+        int length = 200_000;
+        double[] src = signal(length);
+        try (SampleBuffer heap = SampleBuffer.heap(length + 10); SampleBuffer offHeap = SampleBuffer.offHeap(length + 10)) {
+            for (SampleBuffer buffer : new SampleBuffer[] { heap, offHeap }) {
+                buffer.write(1, src, 0, 5000);
+                buffer.add(3, src, 0, length);
+                buffer.add(7, src, 5, length - 5);
+                buffer.clear(1000, 3000);
+            }
+            double[] expected = new double[length + 10];
+            double[] actual = new double[length + 10];
+            heap.read(0, expected, 0, expected.length);
+            offHeap.read(0, actual, 0, actual.length);
+            assertArrayEquals(expected, actual, 0.0);
+            assertEquals(heap.maxAbs(0, length + 10), offHeap.maxAbs(0, length + 10));
+        }
+    }
+
+    // the file holds the samples as native-order doubles, and is complete once close() unmaps it
+    @Test
+    void mappedFileHoldsTheSamples() throws IOException {
+        int length = 200_000;
+        double[] src = signal(length);
+        Path path = dir.resolve("samples.raw");
+        try (SampleBuffer mapped = SampleBuffer.mapped(path, length)) {
+            mapped.write(0, src, 0, length);
+        }
+        double[] onDisk = new double[length];
+        ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.nativeOrder()).asDoubleBuffer().get(onDisk);
+        assertArrayEquals(src, onDisk, 0.0);
+
+        // a reused file starts out as zeros
+        try (SampleBuffer mapped = SampleBuffer.mapped(path, 5000)) {
+            double[] actual = new double[5000];
+            mapped.read(0, actual, 0, actual.length);
+            assertArrayEquals(new double[5000], actual, 0.0);
+        }
+        assertEquals(5000L * Double.BYTES, Files.size(path));
+    }
+
+    @Test
+    void closedOffHeapBufferIsFreed() {
+        SampleBuffer buffer = SampleBuffer.offHeap(100);
+        buffer.close();
+        buffer.close(); // idempotent
+        assertThrows(IllegalStateException.class, () -> buffer.read(0, new double[1], 0, 1));
+    }
+
+    @Test
+    void blocksStreamTheWholeBuffer() throws IOException {
+        double[] src = signal(10_000);
+        try (SampleBuffer buffer = SampleBuffer.offHeap(src.length)) {
+            buffer.write(0, src, 0, src.length);
+            MusicGenerator.BlockSource blocks = buffer.blocks(4096);
+            double[] actual = new double[src.length];
+            int position = 0;
+            int n;
+            while ((n = blocks.read()) > 0) {
+                System.arraycopy(blocks.buffer(), 0, actual, position, n);
+                position += n;
+            }
+            assertEquals(src.length, position);
+            assertArrayEquals(src, actual, 0.0);
+        }
+    }
+
+    @Test
+    void renderToRejectsShortBuffer() {
+        try (SampleBuffer buffer = SampleBuffer.heap(song.sampleCount() - 1)) {
+            assertThrows(IllegalArgumentException.class, () -> song.renderTo(buffer, WavetableOscillator.SINE));
+        }
+    }
+}
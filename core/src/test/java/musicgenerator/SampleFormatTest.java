@@ -0,0 +1,61 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// the bounds documented on Song.generateWaveformFloat and generateWaveformPcm16
+class SampleFormatTest {
+    private static final List<MusicGenerator.Song> SONGS = List.of(
+            MusicGenerator.createMaryHadALittleLamb(), TestSongs.build(3, 12), TestSongs.build(6, 8));
+    private static final List<MusicGenerator.WaveformGenerator> GENERATORS = List.of(
+            MusicGenerator.Waveforms::generateSineWave, MusicGenerator.WavetableOscillator.SAWTOOTH);
+
+    @Test
+    void floatStaysWithinBound() {
+        for (MusicGenerator.Song song : SONGS) {
+            for (MusicGenerator.WaveformGenerator generator : GENERATORS) {
+                double[] expected = song.generateWaveform(generator);
+                float[] actual = song.generateWaveformFloat(generator);
+                assertEquals(expected.length, actual.length);
+
+                double maxError = 0;
+                double signal = 0;
+                double noise = 0;
+                for (int i = 0; i < expected.length; i++) {
+                    double error = actual[i] - expected[i];
+                    maxError = Math.max(maxError, Math.abs(error));
+                    signal += expected[i] * expected[i];
+                    noise += error * error;
+                }
+                assertTrue(maxError < 2.5e-7, "max error " + maxError);
+                assertTrue(10 * Math.log10(signal / noise) > 135, "snr " + 10 * Math.log10(signal / noise));
+            }
+        }
+    }
+
+    @Test
+    void pcm16IsWithinOneStepOfDouble() {
+        for (MusicGenerator.Song song : SONGS) {
+            for (MusicGenerator.WaveformGenerator generator : GENERATORS) {
+                double[] expected = song.generateWaveform(generator);
+                short[] actual = song.generateWaveformPcm16(generator);
+                assertEquals(expected.length, actual.length);
+                for (int i = 0; i < expected.length; i++) {
+                    short reference = (short) (expected[i] * Short.MAX_VALUE);
+                    assertTrue(Math.abs(actual[i] - reference) <= 1, "sample " + i + ": " + actual[i] + " vs " + reference);
+                }
+            }
+        }
+    }
+
+    @Test
+    void emptySong() {
+        MusicGenerator.Song empty = new MusicGenerator.Song("C", new int[] { 4, 4 });
+        assertEquals(0, empty.generateWaveformFloat(MusicGenerator.WavetableOscillator.SINE).length);
+        assertEquals(0, empty.generateWaveformPcm16(MusicGenerator.WavetableOscillator.SINE).length);
+    }
+}
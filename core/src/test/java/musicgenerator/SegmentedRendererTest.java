@@ -0,0 +1,101 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import musicgenerator.MusicGenerator.Bar;
+import musicgenerator.MusicGenerator.Chord;
+import musicgenerator.MusicGenerator.RenderCache;
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.Track;
+import musicgenerator.MusicGenerator.Waveforms;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+// segment lengths that cut notes at and between bar and chunk boundaries; TestSongs bars are
+// 44099 samples
+class SegmentedRendererTest {
+    private static final int[] SEGMENTS = { 1, 997, 4096, 5512, 44099, 44100, 1 << 20 };
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final Song song = TestSongs.build(3, 6);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void matchesGenerateWaveformWithWavetable() {
+        double[] expected = song.generateWaveform(WavetableOscillator.SAWTOOTH);
+        for (int segment : SEGMENTS) {
+            assertArrayEquals(expected, new SegmentedRenderer(pool, segment).render(song, WavetableOscillator.SAWTOOTH),
+                    0.0, "segment " + segment);
+        }
+    }
+
+    // notes fall back to whole renders rather than being generated per range
+    @Test
+    void matchesGenerateWaveformWithWaveforms() {
+        double[] expected = song.generateWaveform(Waveforms::generateSquareWave);
+        for (int segment : new int[] { 997, 44099 }) {
+            assertArrayEquals(expected, new SegmentedRenderer(pool, segment).render(song, Waveforms::generateSquareWave),
+                    0.0, "segment " + segment);
+        }
+    }
+
+    // the whole-item tasks render under the calling thread's setting
+    @Test
+    void matchesGenerateWaveformWithoutNoteNormalize() {
+        for (MusicGenerator.WaveformGenerator generator : new MusicGenerator.WaveformGenerator[] {
+                WavetableOscillator.SINE, Waveforms::generateSineWave }) {
+            assertArrayEquals(Waveforms.withNormalizeNotes(false, () -> song.generateWaveform(generator)),
+                    Waveforms.withNormalizeNotes(false, () -> new SegmentedRenderer(pool, 997).render(song, generator)), 0.0);
+        }
+    }
+
+    // chords fall back to one whole render each, however many segments they span
+    @Test
+    void chordsAreRenderedOncePerItem() {
+        RenderCache cache = RenderCache.shared();
+        cache.setMaxBytes(0);
+        try {
+            long chords = 0;
+            for (Track track : song.tracks) {
+                for (Bar bar : track.bars) {
+                    chords += bar.notes.stream().filter(item -> item instanceof Chord).count();
+                }
+            }
+            long misses = cache.misses();
+            new SegmentedRenderer(pool, 997).render(song, WavetableOscillator.SINE);
+            assertEquals(chords, cache.misses() - misses);
+        } finally {
+            cache.setMaxBytes(Long.getLong("musicgenerator.cache.bytes", 64L << 20));
+        }
+    }
+
+    // slices starting and ending on envelope stage boundaries (attack 882, decay to 3087,
+    // release from 8820 of an 11025-sample note), on 4096-sample chunks, and in between
+    @Test
+    void generateRangeMatchesSliceOfFullNote() {
+        int[] cuts = { 0, 1, 881, 882, 883, 3087, 4096, 5000, 8192, 8819, 8820, 11024, 11025 };
+        for (WavetableOscillator oscillator : new WavetableOscillator[] { WavetableOscillator.SINE, WavetableOscillator.TRIANGLE }) {
+            for (double frequency : new double[] { 27.5, 440.0, 3951.07 }) {
+                double[] full = oscillator.generate(frequency, 0.25);
+                for (int a = 0; a < cuts.length; a++) {
+                    for (int b = a + 1; b < cuts.length; b++) {
+                        double[] out = new double[cuts[b] - cuts[a]];
+                        oscillator.generateRange(frequency, full.length, cuts[a], cuts[b], out);
+                        assertArrayEquals(Arrays.copyOfRange(full, cuts[a], cuts[b]), out, 0.0,
+                                oscillator + " " + frequency + " [" + cuts[a] + ", " + cuts[b] + ")");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+// generateWaveform is the reference, the stream must give the same samples whatever the block size
+class SongStreamTest {
+    private final MusicGenerator.Song song = MusicGenerator.createMaryHadALittleLamb();
+    private final MusicGenerator.WaveformGenerator generator = MusicGenerator.Waveforms::generateSineWave;
+
+    static double[] drain(MusicGenerator.SongStream stream) {
+        double[] out = new double[0];
+        int frames;
+        while ((frames = stream.read()) > 0) {
+            int length = out.length;
+            out = Arrays.copyOf(out, length + frames);
+            System.arraycopy(stream.buffer(), 0, out, length, frames);
+        }
+        return out;
+    }
+
+    @Test
+    void measuredPeakMatchesGenerateWaveform() {
+        double[] expected = song.generateWaveform(generator);
+        for (int blockSize : new int[] { 1, 1000, 4096, expected.length + 1 }) {
+            assertArrayEquals(expected, drain(song.stream(generator, blockSize, true)), 0.0, "block " + blockSize);
+        }
+    }
+
+    // without the peak pass the mix is scaled by a bound on it: same shape, never above 1
+    @Test
+    void defaultScalingIsProportional() {
+        double[] expected = song.generateWaveform(generator);
+        double[] actual = drain(song.stream(generator, 1000));
+        assertEquals(expected.length, actual.length);
+
+        double scale = 0;
+        for (double sample : actual) {
+            scale = Math.max(scale, Math.abs(sample));
+        }
+        assertTrue(scale > 0 && scale <= 1, "peak " + scale);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] * scale, actual[i], 1e-12, "sample " + i);
+        }
+    }
+
+    // read() renders under the setting the stream was built under, not the reading thread's
+    @Test
+    void keepsNormalizeSettingItWasBuiltUnder() {
+        double[] expected = MusicGenerator.Waveforms.withNormalizeNotes(false, () -> song.generateWaveform(generator));
+        MusicGenerator.SongStream stream = MusicGenerator.Waveforms.withNormalizeNotes(false,
+                () -> song.stream(generator, 1000, true));
+        assertArrayEquals(expected, drain(stream), 0.0);
+    }
+
+    // unnormalized, each chord sums four voices, so two stacked tracks peak well above 2.0 and a
+    // 1/trackCount scale would clip; the bound counts voices instead
+    @Test
+    void stackedChordsDoNotClipWithoutNoteNormalize() {
+        MusicGenerator.Song chords = new MusicGenerator.Song("C", new int[] { 4, 4 });
+        for (String root : new String[] { "C", "F" }) {
+            MusicGenerator.Track track = new MusicGenerator.Track("C", 2);
+            for (int b = 0; b < 2; b++) {
+                MusicGenerator.Bar bar = new MusicGenerator.Bar("C", new int[] { 4, 4 });
+                bar.addNoteOrChord(new MusicGenerator.Chord(root, "maj7", "w", 3));
+                track.addBar(bar);
+            }
+            chords.addTrack(track);
+        }
+        double[] measured = MusicGenerator.Waveforms.withNormalizeNotes(false,
+                () -> drain(chords.stream(generator, 1000, true)));
+        double[] bounded = MusicGenerator.Waveforms.withNormalizeNotes(false,
+                () -> drain(chords.stream(generator, 1000)));
+        assertEquals(measured.length, bounded.length);
+
+        double max = 0;
+        for (double sample : bounded) {
+            max = Math.max(max, Math.abs(sample));
+        }
+        // bound of 4 + 4 voices; the mix itself must exceed the 2 a 1/trackCount scale allows
+        assertTrue(max * 8 > 2, "raw peak " + max * 8);
+        for (int i = 0; i < measured.length; i++) {
+            assertEquals(measured[i] * max, bounded[i], 1e-12, "sample " + i);
+        }
+        assertTrue(max > 0 && max <= 1, "peak " + max);
+    }
+
+    @Test
+    void rejectsNonPositiveBlockSize() {
+        assertThrows(IllegalArgumentException.class, () -> song.stream(generator, 0));
+    }
+}
@@ -0,0 +1,45 @@
+package musicgenerator;
+
+
+// songs for comparing render paths against Song.generateWaveform: melody tracks of quarter,
+// eighth and half notes with rests, chord tracks of half and whole notes, each track one bar
+// shorter than the one before so the mix ends unevenly
+final class TestSongs {
+    private static final String[] MELODY = { "C", "D", "E", "F", "G", "A", "B" };
+    private static final String[] PROGRESSION = { "C", "F", "G", "A" };
+
+    private TestSongs() {
+    }
+
+    static MusicGenerator.Song build(int tracks, int bars) {
+        MusicGenerator.Song song = new MusicGenerator.Song("C", new int[] { 4, 4 });
+        for (int t = 0; t < tracks; t++) {
+            MusicGenerator.Track track = new MusicGenerator.Track("C", bars - t);
+            for (int b = 0; b < bars - t; b++) {
+                track.addBar(t % 2 == 0 ? melodyBar(b + t) : chordBar(b));
+            }
+            song.addTrack(track);
+        }
+        return song;
+    }
+
+    static MusicGenerator.Bar melodyBar(int b) {
+        MusicGenerator.Bar bar = new MusicGenerator.Bar("C", new int[] { 4, 4 });
+        bar.addNoteOrChord(new MusicGenerator.Note(MELODY[b % MELODY.length], 4, "qtr"));
+        bar.addNoteOrChord(new MusicGenerator.Note(MELODY[(b + 2) % MELODY.length], 5, "eigth"));
+        bar.addNoteOrChord(new MusicGenerator.Note(null, 0, "eigth"));
+        bar.addNoteOrChord(new MusicGenerator.Note(MELODY[(b + 4) % MELODY.length], 4, "h"));
+        return bar;
+    }
+
+    static MusicGenerator.Bar chordBar(int b) {
+        MusicGenerator.Bar bar = new MusicGenerator.Bar("C", new int[] { 4, 4 });
+        if (b % 3 == 2) {
+            bar.addNoteOrChord(new MusicGenerator.Chord(PROGRESSION[b % PROGRESSION.length], "maj7", "w", 3));
+        } else {
+            bar.addNoteOrChord(new MusicGenerator.Chord(PROGRESSION[b % PROGRESSION.length], "Major", "h", 3));
+            bar.addNoteOrChord(new MusicGenerator.Chord(PROGRESSION[(b + 1) % PROGRESSION.length], "7", "h", 3));
+        }
+        return bar;
+    }
+}
@@ -0,0 +1,123 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import musicgenerator.MusicGenerator.Bar;
+import musicgenerator.MusicGenerator.Chord;
+import musicgenerator.MusicGenerator.Note;
+import musicgenerator.MusicGenerator.Song;
+import musicgenerator.MusicGenerator.Track;
+import musicgenerator.MusicGenerator.Waveforms;
+import musicgenerator.MusicGenerator.WavetableOscillator;
+
+class TimelineTest {
+    private static final String[] MELODY = { "C", "D", "E", "F", "G", "A", "B" };
+
+    // full 4/4 bars of quarter, half and whole notes and chords, tracks of different lengths
+    private static Song song() {
+        Song song = new Song("C", new int[] { 4, 4 });
+        Track melody = new Track("C", 10);
+        Track chords = new Track("C", 7);
+        for (int b = 0; b < 10; b++) {
+            Bar bar = new Bar("C", new int[] { 4, 4 });
+            bar.addNoteOrChord(new Note(MELODY[b % 7], 4, "qtr"));
+            bar.addNoteOrChord(b % 4 == 1 ? new Note(null, 0, "qtr") : new Note(MELODY[(b + 3) % 7], 5, "qtr"));
+            bar.addNoteOrChord(new Note(MELODY[(b + 5) % 7], 4, "h"));
+            melody.addBar(bar);
+        }
+        for (int b = 0; b < 7; b++) {
+            Bar bar = new Bar("C", new int[] { 4, 4 });
+            if (b % 2 == 0) {
+                bar.addNoteOrChord(new Chord("F", "maj7", "w", 3));
+            } else {
+                bar.addNoteOrChord(new Chord("C", "Major", "h", 3));
+                bar.addNoteOrChord(new Chord("G", "7", "h", 3));
+            }
+            chords.addBar(bar);
+        }
+        song.addTrack(melody);
+        song.addTrack(chords);
+        return song;
+    }
+
+    @Test
+    void fromSongMatchesGenerateWaveformWithWavetable() {
+        Song song = song();
+        assertArrayEquals(song.generateWaveform(WavetableOscillator.SINE),
+                Timeline.fromSong(song).render(WavetableOscillator.SINE), 0.0);
+    }
+
+    @Test
+    void fromSongMatchesGenerateWaveformWithWaveforms() {
+        Song song = song();
+        assertArrayEquals(song.generateWaveform(Waveforms::generateTriangleWave),
+                Timeline.fromSong(song).render(Waveforms::generateTriangleWave), 0.0);
+    }
+
+    // chords stay unnormalized on the wavetable path too
+    @Test
+    void fromSongMatchesWithoutNoteNormalize() {
+        Song song = song();
+        for (MusicGenerator.WaveformGenerator generator : new MusicGenerator.WaveformGenerator[] {
+                WavetableOscillator.SINE, Waveforms::generateSineWave }) {
+            assertArrayEquals(Waveforms.withNormalizeNotes(false, () -> song.generateWaveform(generator)),
+                    Waveforms.withNormalizeNotes(false, () -> Timeline.fromSong(song).render(generator)), 1e-12);
+        }
+    }
+
+    // the same ticks through CompactScore, chords included
+    @Test
+    void fromScoreMatchesFromSong() {
+        Song song = song();
+        assertArrayEquals(Timeline.fromSong(song).render(WavetableOscillator.SINE),
+                Timeline.fromScore(CompactScore.fromSong(song), Song.DEFAULT_TEMPO).render(WavetableOscillator.SINE), 0.0);
+    }
+
+    // a held note under two later ones, summed where they overlap
+    @Test
+    void overlappingEventsAreMixedAtTheirOffsets() {
+        Timeline timeline = new Timeline(120); // a quarter note is 22050 samples
+        timeline.add(0, 4 * Timeline.PPQ, new Note("C", 3, "w"));
+        timeline.add(Timeline.PPQ, Timeline.PPQ, new Note("E", 4, "qtr"));
+        timeline.add(3 * Timeline.PPQ, 2 * Timeline.PPQ, new Note("G", 4, "h"));
+        assertEquals(22050, timeline.sampleAt(Timeline.PPQ));
+        assertEquals(5 * 22050, timeline.sampleLength());
+
+        double[] expected = new double[5 * 22050];
+        addAt(expected, 0, WavetableOscillator.SINE.generate(130.81, 2.0));
+        addAt(expected, 22050, WavetableOscillator.SINE.generate(329.63, 0.5));
+        addAt(expected, 3 * 22050, WavetableOscillator.SINE.generate(392.00, 1.0));
+        Waveforms.normalizeInPlace(expected);
+        assertArrayEquals(expected, timeline.render(WavetableOscillator.SINE), 0.0);
+    }
+
+    // a short bar is padded with silence to the length of its time signature
+    @Test
+    void shortBarIsPadded() {
+        Song song = new Song("C", new int[] { 4, 4 });
+        Track track = new Track("C", 2);
+        Bar shortBar = new Bar("C", new int[] { 4, 4 });
+        shortBar.addNoteOrChord(new Note("C", 4, "h"));
+        Bar next = new Bar("C", new int[] { 4, 4 });
+        next.addNoteOrChord(new Note("D", 4, "qtr"));
+        track.addBar(shortBar);
+        track.addBar(next);
+        song.addTrack(track);
+
+        Timeline timeline = Timeline.fromSong(song);
+        double[] waveform = timeline.render(WavetableOscillator.SINE);
+        assertEquals(44100 + 11025, waveform.length);
+        for (int i = 22050; i < 44100; i++) {
+            assertEquals(0.0, waveform[i], "sample " + i);
+        }
+    }
+
+    private static void addAt(double[] out, int offset, double[] waveform) {
+        for (int i = 0; i < waveform.length; i++) {
+            out[offset + i] += waveform[i];
+        }
+    }
+}
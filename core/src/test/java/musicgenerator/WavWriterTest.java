@@ -0,0 +1,209 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// header fields and sizes are read back byte by byte, then once more through javax.sound
+class WavWriterTest {
+    @TempDir
+    Path dir;
+
+    // a ramp in [-1, 1] handed out 1000 frames at a time
+    private static MusicGenerator.BlockSource ramp(int frames) {
+        return new MusicGenerator.BlockSource() {
+            private final double[] buffer = new double[1000];
+            private int position;
+
+            @Override
+            public double[] buffer() {
+                return buffer;
+            }
+
+            @Override
+            public int read() {
+                int n = Math.min(buffer.length, frames - position);
+                for (int i = 0; i < n; i++) {
+                    buffer[i] = 2.0 * (position + i) / frames - 1.0;
+                }
+                position += n;
+                return n;
+            }
+        };
+    }
+
+    private static MusicGenerator.BlockSource sine(double frequency, int frames) {
+        return new MusicGenerator.BlockSource() {
+            private final double[] buffer = new double[4096];
+            private int position;
+
+            @Override
+            public double[] buffer() {
+                return buffer;
+            }
+
+            @Override
+            public int read() {
+                int n = Math.min(buffer.length, frames - position);
+                for (int i = 0; i < n; i++) {
+                    buffer[i] = 0.5 * Math.sin(2 * Math.PI * frequency * (position + i) / 44100);
+                }
+                position += n;
+                return n;
+            }
+        };
+    }
+
+    // first sample: 16-byte fmt for pcm_16, 40-byte extensible fmt for pcm_24, 18-byte fmt and a
+    // fact chunk for float_32
+    private static int dataOffset(MusicGenerator.WavWriter.Encoding encoding) {
+        switch (encoding) {
+            case PCM_16:
+                return 44;
+            case PCM_24:
+                return 68;
+            default:
+                return 58;
+        }
+    }
+
+    private static void assertHeader(ByteBuffer file, MusicGenerator.WavWriter.Encoding encoding, int rate, long frames) {
+        int bytesPerSample = encoding == MusicGenerator.WavWriter.Encoding.PCM_16 ? 2
+                : encoding == MusicGenerator.WavWriter.Encoding.PCM_24 ? 3 : 4;
+        int offset = dataOffset(encoding);
+        long dataBytes = frames * bytesPerSample;
+        long pad = dataBytes & 1;
+        assertEquals(offset + dataBytes + pad, file.limit());
+        assertEquals(0x46464952, file.getInt(0)); // RIFF
+        assertEquals(offset - 8 + dataBytes + pad, file.getInt(4));
+        assertEquals(0x45564157, file.getInt(8)); // WAVE
+        assertEquals(0x20746d66, file.getInt(12)); // fmt
+        assertEquals(1, file.getShort(22));
+        assertEquals(rate, file.getInt(24));
+        assertEquals(rate * bytesPerSample, file.getInt(28));
+        assertEquals(bytesPerSample, file.getShort(32));
+        assertEquals(8 * bytesPerSample, file.getShort(34));
+        switch (encoding) {
+            case PCM_16:
+                assertEquals(16, file.getInt(16));
+                assertEquals(1, file.getShort(20));
+                break;
+            case PCM_24:
+                assertEquals(40, file.getInt(16));
+                assertEquals((short) 0xFFFE, file.getShort(20));
+                assertEquals(22, file.getShort(36)); // cbSize
+                assertEquals(24, file.getShort(38)); // valid bits
+                assertEquals(4, file.getInt(40)); // front center
+                assertEquals(1, file.getInt(44)); // pcm subformat guid
+                assertEquals(0x00100000, file.getInt(48));
+                assertEquals(0xAA000080, file.getInt(52));
+                assertEquals(0x719B3800, file.getInt(56));
+                break;
+            default:
+                assertEquals(18, file.getInt(16));
+                assertEquals(3, file.getShort(20));
+                assertEquals(0, file.getShort(36)); // cbSize
+                assertEquals(0x74636166, file.getInt(38)); // fact
+                assertEquals(4, file.getInt(42));
+                assertEquals(frames, file.getInt(46));
+        }
+        assertEquals(0x61746164, file.getInt(offset - 8)); // data
+        assertEquals(dataBytes, file.getInt(offset - 4));
+        if (pad != 0) {
+            assertEquals(0, file.get(file.limit() - 1));
+        }
+    }
+
+    private ByteBuffer write(String name, MusicGenerator.BlockSource source, MusicGenerator.WavWriter.Encoding encoding, int rate, long expectedFrames)
+            throws IOException, UnsupportedAudioFileException {
+        Path path = dir.resolve(name);
+        assertEquals(expectedFrames, MusicGenerator.WavWriter.write(source, path, encoding, rate));
+        AudioFileFormat format = AudioSystem.getAudioFileFormat(path.toFile());
+        assertEquals(expectedFrames, format.getFrameLength());
+        assertEquals(rate, format.getFormat().getSampleRate(), 0.0);
+        return ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    void pcm16() throws Exception {
+        ByteBuffer file = write("a.wav", ramp(2501), MusicGenerator.WavWriter.Encoding.PCM_16, 44100, 2501);
+        assertHeader(file, MusicGenerator.WavWriter.Encoding.PCM_16, 44100, 2501);
+        for (int i = 0; i < 2501; i++) {
+            double sample = 2.0 * i / 2501 - 1.0;
+            assertEquals((short) (sample * Short.MAX_VALUE), file.getShort(44 + 2 * i), "frame " + i);
+        }
+    }
+
+    // 3 bytes a frame: an odd frame count leaves an odd data chunk, padded to an even size
+    @Test
+    void pcm24PadsOddDataChunk() throws Exception {
+        ByteBuffer file = write("a.wav", ramp(2501), MusicGenerator.WavWriter.Encoding.PCM_24, 44100, 2501);
+        assertHeader(file, MusicGenerator.WavWriter.Encoding.PCM_24, 44100, 2501);
+        for (int i = 0; i < 2501; i++) {
+            int value = (file.get(68 + 3 * i) & 0xFF) | (file.get(69 + 3 * i) & 0xFF) << 8 | file.get(70 + 3 * i) << 16;
+            assertEquals((int) ((2.0 * i / 2501 - 1.0) * 8388607), value, "frame " + i);
+        }
+
+        file = write("b.wav", ramp(2500), MusicGenerator.WavWriter.Encoding.PCM_24, 44100, 2500);
+        assertHeader(file, MusicGenerator.WavWriter.Encoding.PCM_24, 44100, 2500);
+    }
+
+    @Test
+    void float32() throws Exception {
+        ByteBuffer file = write("a.wav", ramp(2501), MusicGenerator.WavWriter.Encoding.FLOAT_32, 44100, 2501);
+        assertHeader(file, MusicGenerator.WavWriter.Encoding.FLOAT_32, 44100, 2501);
+        for (int i = 0; i < 2501; i++) {
+            assertEquals((float) (2.0 * i / 2501 - 1.0), file.getFloat(58 + 4 * i), "frame " + i);
+        }
+    }
+
+    @Test
+    void emptyStream() throws Exception {
+        ByteBuffer file = write("a.wav", ramp(0), MusicGenerator.WavWriter.Encoding.PCM_24, 44100, 0);
+        assertHeader(file, MusicGenerator.WavWriter.Encoding.PCM_24, 44100, 0);
+    }
+
+    // a 1 kHz tone resampled down and up stays a 1 kHz tone at the new rate
+    @Test
+    void resamplesToRequestedRate() throws Exception {
+        int[][] cases = { { 22050, 22050 }, { 48000, 48000 }, { 8000, 8000 } };
+        for (int[] c : cases) {
+            int rate = c[0];
+            ByteBuffer file = write(rate + ".wav", sine(1000, 44100), MusicGenerator.WavWriter.Encoding.FLOAT_32, rate, c[1]);
+            assertHeader(file, MusicGenerator.WavWriter.Encoding.FLOAT_32, rate, c[1]);
+            // away from the edges, where the kernel runs past the start and end of the input
+            for (int i = 100; i < c[1] - 100; i++) {
+                double expected = 0.5 * Math.sin(2 * Math.PI * 1000 * i / rate);
+                assertEquals(expected, file.getFloat(58 + 4 * i), 1e-3, rate + " Hz frame " + i);
+            }
+        }
+        // ceil(44099 * 22050 / 44100)
+        assertHeader(write("odd.wav", sine(1000, 44099), MusicGenerator.WavWriter.Encoding.PCM_24, 22050, 22050), MusicGenerator.WavWriter.Encoding.PCM_24, 22050, 22050);
+    }
+
+    // the part of a tone above the new nyquist is filtered out rather than aliased
+    @Test
+    void downsamplingRemovesContentAboveNyquist() throws Exception {
+        ByteBuffer file = write("a.wav", sine(6000, 44100), MusicGenerator.WavWriter.Encoding.FLOAT_32, 8000, 8000);
+        for (int i = 200; i < 7800; i++) {
+            assertEquals(0.0, file.getFloat(58 + 4 * i), 0.01, "frame " + i);
+        }
+    }
+
+    @Test
+    void rejectsNonPositiveRate() {
+        assertThrows(IllegalArgumentException.class, () -> MusicGenerator.WavWriter.write(ramp(10), dir.resolve("a.wav"), MusicGenerator.WavWriter.Encoding.PCM_16, 0));
+    }
+}
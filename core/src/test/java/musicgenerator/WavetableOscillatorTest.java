@@ -0,0 +1,117 @@
+package musicgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// spectra are taken over a hann-windowed stretch of the sustain, away from the envelope ramps
+class WavetableOscillatorTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int WINDOW = 8192;
+    private static final int WINDOW_START = 4000;
+
+    // goertzel magnitude of one frequency
+    private static double magnitude(double[] waveform, double frequency) {
+        double coefficient = 2 * Math.cos(2 * Math.PI * frequency / SAMPLE_RATE);
+        double s1 = 0;
+        double s2 = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            double hann = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (WINDOW - 1));
+            double s0 = waveform[WINDOW_START + i] * hann + coefficient * s1 - s2;
+            s2 = s1;
+            s1 = s0;
+        }
+        return Math.sqrt(s1 * s1 + s2 * s2 - coefficient * s1 * s2);
+    }
+
+    // where harmonics above nyquist fold back to, skipping any that land near a real harmonic
+    private static List<Double> aliasFrequencies(double fundamental) {
+        List<Double> aliases = new ArrayList<>();
+        for (int h = 2; h <= 40; h++) {
+            double partial = h * fundamental;
+            if (partial <= SAMPLE_RATE / 2.0) {
+                continue;
+            }
+            double alias = Math.abs(partial - Math.round(partial / SAMPLE_RATE) * (double) SAMPLE_RATE);
+            double nearest = Math.round(alias / fundamental) * fundamental;
+            if (Math.abs(alias - nearest) > 100 && alias > 100) {
+                aliases.add(alias);
+            }
+        }
+        return aliases;
+    }
+
+    private static double worstAlias(double[] waveform, double fundamental) {
+        double reference = magnitude(waveform, fundamental);
+        double worst = 0;
+        for (double alias : aliasFrequencies(fundamental)) {
+            worst = Math.max(worst, magnitude(waveform, alias) / reference);
+        }
+        return worst;
+    }
+
+    @Test
+    void highNotesDoNotAlias() {
+        // F7, G7 and B7 sit in the upper bands where the naive square and saw fold back hardest
+        for (double frequency : new double[] { 2793.83, 3135.96, 3951.07 }) {
+            assertTrue(!aliasFrequencies(frequency).isEmpty());
+            double square = worstAlias(MusicGenerator.WavetableOscillator.SQUARE.generate(frequency, 1.0), frequency);
+            double sawtooth = worstAlias(MusicGenerator.WavetableOscillator.SAWTOOTH.generate(frequency, 1.0), frequency);
+            assertTrue(square < 1e-4, frequency + "hz square alias at " + square);
+            assertTrue(sawtooth < 1e-4, frequency + "hz sawtooth alias at " + sawtooth);
+        }
+    }
+
+    // the same measurement catches the naive generators, so the bound above means something
+    @Test
+    void naiveGeneratorsDoAlias() {
+        double frequency = 3135.96;
+        assertTrue(worstAlias(MusicGenerator.Waveforms.generateSquareWave(frequency, 1.0), frequency) > 1e-2);
+        assertTrue(worstAlias(MusicGenerator.Waveforms.generateSawtoothWave(frequency, 1.0), frequency) > 1e-2);
+    }
+
+    // rising zero crossings of a 10s sine stay on k / frequency, so the accumulator doesn't drift
+    @Test
+    void phaseAccumulatorHoldsFrequency() {
+        double frequency = 440.0;
+        double[] waveform = MusicGenerator.WavetableOscillator.SINE.generate(frequency, 10.0);
+        int crossings = 0;
+        double worst = 0;
+        for (int i = 1; i < waveform.length - 1; i++) {
+            if (waveform[i] <= 0 && waveform[i + 1] > 0) {
+                double t = (i + waveform[i] / (waveform[i] - waveform[i + 1])) / SAMPLE_RATE;
+                long cycle = Math.round(t * frequency);
+                worst = Math.max(worst, Math.abs(t - cycle / frequency));
+                crossings++;
+            }
+        }
+        assertEquals(4399, crossings, 1);
+        assertTrue(worst < 1e-6, "phase error " + worst + "s");
+    }
+
+    // the oscillator bank sums the voices before one envelope and normalize, the per-voice
+    // path envelopes each voice first; the envelope is linear, so only rounding differs
+    @Test
+    void chordBankMatchesPerVoiceSum() {
+        double[] frequencies = { 130.81, 164.81, 196.00, 233.08, 277.18, 293.66, 440.00 };
+        for (MusicGenerator.WavetableOscillator oscillator : new MusicGenerator.WavetableOscillator[] {
+                MusicGenerator.WavetableOscillator.SINE, MusicGenerator.WavetableOscillator.SAWTOOTH }) {
+            double[] expected = new double[SAMPLE_RATE / 2];
+            for (double frequency : frequencies) {
+                double[] voice = oscillator.generate(frequency, 0.5);
+                for (int i = 0; i < expected.length; i++) {
+                    expected[i] += voice[i];
+                }
+            }
+            double[] actual = oscillator.generateChord(frequencies, 0.5);
+            double[] normalized = MusicGenerator.Waveforms.normalize(expected);
+            for (int i = 0; i < normalized.length; i++) {
+                assertEquals(normalized[i], actual[i], 1e-15, oscillator + " sample " + i);
+            }
+        }
+    }
+}